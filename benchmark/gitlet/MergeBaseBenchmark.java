@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** merge-base的基准测试，不属于gitlet本身，放在单独的benchmark目录下。
+ *  和gitlet的类编译到一起后运行(和gitlet同一个包，需要用到包内的CommitGraph)：
+ *      javac -d classes gitlet/*.java benchmark/gitlet/MergeBaseBenchmark.java
+ *      java -cp classes gitlet.MergeBaseBenchmark [COMMITS [QUERIES]]
+ *  在内存中生成COMMITS个commit(默认100000)的合成历史，不需要仓库：
+ *  两条分支随机交替前进，每隔CRISS_CROSS_INTERVAL个commit两边同时merge对方的头，
+ *  形成criss-cross(两个merge commit有两个同样好的公共祖先)。
+ *  对QUERIES对(默认1000)随机挑选的commit分别用MergeBase和朴素的做法
+ *  (先标记一边的全部祖先，再从另一边遍历找代数最大的公共祖先)计算，
+ *  检查两者结果一致，并输出各自的耗时。
+ *
+ *  @author Zhurish
+ */
+public class MergeBaseBenchmark {
+    private static final int DEFAULT_COMMITS = 100000;
+    private static final int DEFAULT_QUERIES = 1000;
+    private static final int CRISS_CROSS_INTERVAL = 50;
+    /** 随机挑选的两个commit在历史中相距不超过这么多个commit。 */
+    private static final int QUERY_WINDOW = 2000;
+
+    public static void main(String... args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COMMITS;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+        Random random = new Random(61);
+
+        long start = System.nanoTime();
+        String[] ids = new String[commits];
+        CommitGraph graph = syntheticHistory(ids, random);
+        System.out.printf("built %d commits in %d ms%n", commits, millisSince(start));
+
+        int[][] pairs = new int[queries][2];
+        for (int[] pair : pairs) {
+            pair[0] = random.nextInt(commits);
+            int low = Math.max(0, pair[0] - QUERY_WINDOW);
+            pair[1] = low + random.nextInt(Math.min(commits, pair[0] + QUERY_WINDOW) - low);
+            pair[0] = graph.indexOf(ids[pair[0]]);
+            pair[1] = graph.indexOf(ids[pair[1]]);
+        }
+
+        int[] fast = new int[queries];
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i += 1) {
+            fast[i] = MergeBase.find(graph, pairs[i][0], pairs[i][1]);
+        }
+        System.out.printf("generation walk: %d queries in %d ms%n", queries, millisSince(start));
+
+        int[] naive = new int[queries];
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i += 1) {
+            naive[i] = naiveMergeBase(graph, pairs[i][0], pairs[i][1]);
+        }
+        System.out.printf("full-history walk: %d queries in %d ms%n", queries, millisSince(start));
+
+        for (int i = 0; i < queries; i += 1) {
+            // criss-cross时可能有多个同样好的公共祖先，只要求代数相同且确实是公共祖先
+            boolean[] fromA = ancestors(graph, pairs[i][0]);
+            boolean[] fromB = ancestors(graph, pairs[i][1]);
+            if (!fromA[fast[i]] || !fromB[fast[i]]
+                    || graph.generation(fast[i]) != graph.generation(naive[i])) {
+                throw Utils.error("Wrong merge base for %s and %s.",
+                        graph.idAt(pairs[i][0]), graph.idAt(pairs[i][1]));
+            }
+        }
+        System.out.println("all results agree");
+    }
+
+    /** 生成合成历史，IDS[i]是第i个commit的id，返回建好的提交图。 */
+    private static CommitGraph syntheticHistory(String[] ids, Random random) {
+        TreeMap<String, CommitGraph.Row> rows = new TreeMap<>();
+        ids[0] = Utils.sha1("commit", "0");
+        rows.put(ids[0], new CommitGraph.Row(new ArrayList<>(), 0));
+        int headA = 0;
+        int headB = 0;
+        for (int i = 1; i < ids.length; i += 1) {
+            ids[i] = Utils.sha1("commit", Integer.toString(i));
+            List<String> parents = new ArrayList<>();
+            if (i % CRISS_CROSS_INTERVAL == 0 && i + 1 < ids.length) {
+                ids[i + 1] = Utils.sha1("commit", Integer.toString(i + 1));
+                rows.put(ids[i], new CommitGraph.Row(List.of(ids[headA], ids[headB]), i * 1000L));
+                rows.put(ids[i + 1], new CommitGraph.Row(List.of(ids[headB], ids[headA]), i * 1000L));
+                headA = i;
+                headB = i + 1;
+                i += 1;
+                continue;
+            }
+            if (random.nextBoolean()) {
+                parents.add(ids[headA]);
+                headA = i;
+            } else {
+                parents.add(ids[headB]);
+                headB = i;
+            }
+            rows.put(ids[i], new CommitGraph.Row(parents, i * 1000L));
+        }
+        return CommitGraph.build(rows);
+    }
+
+    /** 不用代数剪枝的做法：标记A的全部祖先，再遍历B的全部祖先，取代数最大的公共祖先。 */
+    private static int naiveMergeBase(CommitGraph graph, int a, int b) {
+        boolean[] fromA = ancestors(graph, a);
+        boolean[] fromB = ancestors(graph, b);
+        int best = CommitGraph.NONE;
+        for (int row = 0; row < graph.size(); row += 1) {
+            if (fromA[row] && fromB[row]
+                    && (best == CommitGraph.NONE || graph.generation(row) > graph.generation(best))) {
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    /** 返回标记了ROW及其所有祖先的数组。 */
+    private static boolean[] ancestors(CommitGraph graph, int row) {
+        boolean[] seen = new boolean[graph.size()];
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(row);
+        seen[row] = true;
+        while (!pending.isEmpty()) {
+            int current = pending.pop();
+            for (int which = 0; which < 2; which += 1) {
+                int parent = graph.parent(current, which);
+                if (parent != CommitGraph.NONE && !seen[parent]) {
+                    seen[parent] = true;
+                    pending.push(parent);
+                }
+            }
+        }
+        return seen;
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
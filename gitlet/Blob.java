@@ -1,37 +1,130 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
 
-import static gitlet.Repository.OBJECTS_DIR;
+import static gitlet.Utils.join;
 
 
 public class Blob implements Serializable {
+    /** 固定为加入chunkIds之前的值，保证旧的Blob对象仍能反序列化。 */
+    private static final long serialVersionUID = 1798374022569252959L;
+    /** 大文件阈值的默认值：4MB。 */
+    private static final int DEFAULT_BIG_FILE_THRESHOLD = 4 * 1024 * 1024;
+    /** 存在时blob的id只取决于内容：sha1("blob", content)。新仓库在init时写入；
+     *  旧仓库的id是sha1(path, content)，运行migrate-blobs迁移后写入，见BlobMigration。 */
+    private static final String FORMAT_NAME = "blobFormat";
+    private static final String CONTENT_FORMAT = "content";
+    /** 内容寻址时id的前缀，和Chunk的"chunk"区分开。 */
+    private static final String CONTENT_PREFIX = "blob";
+
     //对于git add操作，输入的是文件名
-    private String path;    //文件的路径字符串表示(绝对路径)
+    private String path;    //文件的路径字符串表示(绝对路径)，只在内存中，不写入对象库；从对象库读出时为null
     private String id;  //文件哈希得到的id,作为Blob文件的文件名
-    private File blobSaveFileName;  //保存到Objects文件夹的文件名，形式如：Objects/id
-    private byte[] content; //文件内容
+    private File blobSaveFileName;  //保存到Objects文件夹的文件名，形式如：Objects/id前两位/剩余部分
+    private byte[] content; //文件内容，大文件切块存储时为null
     private File filePath;  //文件的绝对路径
     private String fileString;    //文件名
+    private List<String> chunkIds;  //大文件按内容切块后各块的id，小文件为null
 
     public Blob(File file) {
         this.filePath = file;
         this.path = file.getPath();
-        this.content = readFile(file);
-        this.id = Utils.sha1(path, content);
+        if (file.length() > Config.getInt(Config.BIG_FILE_THRESHOLD, DEFAULT_BIG_FILE_THRESHOLD)) {
+            this.id = readChunks(file);
+        } else {
+            this.content = readFile(file);
+            this.id = Utils.sha1(idPrefix(path), content);
+        }
         this.blobSaveFileName = generateBlobSaveFileName();
         this.fileString = file.getName();
     }
 
+    /** 从对象库读出或迁移时使用：id就是对象的键，对象中没有路径。 */
+    Blob(String id, byte[] content, List<String> chunkIds) {
+        this.id = id;
+        this.content = content;
+        this.chunkIds = chunkIds;
+        this.blobSaveFileName = generateBlobSaveFileName();
+    }
+
+    /** 当前仓库(见Repository.current)的blobFormat文件。 */
+    static File formatFile() {
+        return join(Repository.current().gitletDir(), FORMAT_NAME);
+    }
+
+    /** 仓库中的blob按内容寻址时返回true。 */
+    static boolean contentAddressed() {
+        return formatFile().isFile();
+    }
+
+    /** 新仓库使用内容寻址，init时调用。 */
+    static void initFormat() {
+        Utils.writeContents(formatFile(), CONTENT_FORMAT);
+    }
+
+    /** id的哈希中内容之前的部分：内容寻址时是固定的前缀，旧仓库是文件路径。 */
+    private static String idPrefix(String path) {
+        return contentAddressed() ? CONTENT_PREFIX : path;
+    }
+
+    /** 返回内容为IN的blob在内容寻址时的id，IN会被关闭。 */
+    static String contentId(InputStream in) {
+        return Utils.sha1(CONTENT_PREFIX, in);
+    }
+
     public File generateBlobSaveFileName() {
-        return Utils.join(OBJECTS_DIR, id);
+        return ObjectStore.objectFile(id);
     }
 
     public byte[] readFile(File pathOfFile) {
         return Utils.readContents(pathOfFile);
     }
 
+    /** 边读边切块，每一块直接存入对象库，返回Blob的id。
+     *  id和小文件的算法相同，只是分块喂给哈希。 */
+    private String readChunks(File file) {
+        MessageDigest md = Utils.newSha1();
+        md.update(idPrefix(path).getBytes(StandardCharsets.UTF_8));
+        List<String> ids = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            Chunker.split(in, chunk -> {
+                md.update(chunk);
+                ids.add(Chunk.save(chunk));
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        this.chunkIds = ids;
+        return Utils.sha1Digest(md);
+    }
+
+    public boolean isChunked() {
+        return chunkIds != null;
+    }
+
+    /** 切块存储时各块的id，小文件返回null。 */
+    List<String> getChunkIds() {
+        return chunkIds;
+    }
+
+    /** 小文件的内容，切块存储时返回null。 */
+    byte[] getStoredContent() {
+        return content;
+    }
 
     public String getBlobId() {
         return id;
@@ -42,10 +135,58 @@ public class Blob implements Serializable {
     }
 
     public void saveBlob() {
-        Utils.writeObject(blobSaveFileName, this);
+        ObjectStore.writeObject(id, this);
+    }
+
+    /** 返回文件FILE当前内容下应有的blob id，算法和构造时相同。
+     *  文件内容是流式读入哈希的，用来判断工作区文件是否和某个blob相同，
+     *  不需要读出blob，也不需要把文件读进内存。 */
+    public static String idOf(File file) {
+        return Utils.sha1(idPrefix(file.getPath()), Utils.openContents(file));
     }
 
+    /** 返回完整的文件内容；切块存储的大文件会把所有块拼起来。
+     *  只在确实需要整块内容时使用，其他情况用openStream。 */
     public byte[] getContent() {
-        return content;
+        if (chunkIds == null) {
+            return content;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String chunkId : chunkIds) {
+            byte[] chunk = ObjectStore.readObject(chunkId, Chunk.class).getContent();
+            out.write(chunk, 0, chunk.length);
+        }
+        return out.toByteArray();
+    }
+
+    /** 返回内容的输入流。切块存储的大文件读到哪一块才去对象库取哪一块，
+     *  内存中最多只有一块。 */
+    public InputStream openStream() {
+        if (chunkIds == null) {
+            return new ByteArrayInputStream(content);
+        }
+        Iterator<String> it = chunkIds.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return it.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Chunk chunk = ObjectStore.readObject(it.next(), Chunk.class);
+                return new ByteArrayInputStream(chunk.getContent());
+            }
+        });
+    }
+
+    /** 把内容经固定大小的缓冲区写到FILE。 */
+    public void writeTo(File file) {
+        Utils.writeContents(file, openStream());
+    }
+
+    /** 判断FILE的内容是否和这个blob相同，两边都是流式比较。 */
+    public boolean contentEquals(File file) {
+        return Utils.sameContents(openStream(), Utils.openContents(file));
     }
 }
@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/** 把旧仓库迁移到内容寻址的blob(见Blob.formatFile)。
+ *
+ *  旧仓库的blob id是sha1(path, content)，同样的内容在不同路径下存成不同的对象。
+ *  迁移按parent在前的顺序逐个重写commit：commit引用的每个blob流式算出新的id，
+ *  对象库中还没有这个id时才写入，已有时就是重复的内容，只计入报告。
+ *  commit的id依赖于文件的blob id和parent，所以所有commit的id都会改变，
+ *  说明和时间保持不变。之后更新分支和暂存区，写入格式标记，删除旧对象，重建索引。
+ *  内存中保存所有commit的parent列表和新旧id的对应表；commit和blob经由
+ *  ObjectStore.readObject读出，除了正在重写的一个，其余的只留在对象缓存中，
+ *  总量受core.objectCacheSize限制。blob的内容逐个读出(切块的大文件一次只有一块)。
+ *
+ *  中途失败时旧对象和分支都还在，仓库照旧可用，可以重新运行。
+ *
+ *  @author Zhurish
+ */
+class BlobMigration {
+    /** 旧blob id到新id。 */
+    private final Map<String, String> blobIds = new HashMap<>();
+    /** 旧commit id到新id。 */
+    private final Map<String, String> commitIds = new HashMap<>();
+    /** 和已有blob内容相同、迁移后不再单独保存的blob个数和它们的大小。 */
+    private int duplicates;
+    private long duplicateBytes;
+
+    /** 迁移当前仓库并输出报告；已经是内容寻址时只输出一行提示。 */
+    static void migrate() {
+        if (Blob.contentAddressed()) {
+            System.out.println("Blobs are already addressed by content.");
+            return;
+        }
+        new BlobMigration().run();
+    }
+
+    private void run() {
+        for (String id : topologicalOrder(readParents())) {
+            rewriteCommit(id);
+        }
+        Repository repository = Repository.current();
+        for (File branch : repository.headsDir().listFiles()) {
+            String id = Utils.readObject(branch, String.class);
+            Utils.writeObject(branch, commitIds.getOrDefault(id, id));
+        }
+        rewriteStage();
+        Blob.initFormat();
+
+        Set<String> obsolete = new HashSet<>();
+        for (Map<String, String> ids : List.of(blobIds, commitIds)) {
+            for (Map.Entry<String, String> entry : ids.entrySet()) {
+                if (!entry.getKey().equals(entry.getValue())) {
+                    obsolete.add(entry.getKey());
+                }
+            }
+        }
+        ObjectStore.delete(obsolete);
+        CommitGraph.graphFile().delete();
+        CommitGraph.covering(commitIds.values().toArray(new String[0]));
+        MessageIndex.rebuild();
+        TrigramIndex.rebuild();
+
+        System.out.printf("Rewrote %d commits.%n", commitIds.size());
+        System.out.printf("Blobs: %d before, %d after.%n",
+                blobIds.size(), blobIds.size() - duplicates);
+        System.out.printf("Deduplicated %d blobs, %d bytes no longer stored.%n",
+                duplicates, duplicateBytes);
+    }
+
+    /** 返回对象库中每个commit的parent。 */
+    private static Map<String, List<String>> readParents() {
+        Map<String, List<String>> parents = new HashMap<>();
+        for (String id : ObjectStore.allObjectIds()) {
+            if (!ObjectStore.mayBeOfType(id, Commit.class)) {
+                continue;
+            }
+            try {
+                parents.put(id, ObjectStore.readObject(id, Commit.class).getParents());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+        }
+        return parents;
+    }
+
+    /** 返回PARENTS中的所有commit，parent总排在child前面；用显式的栈，长历史也不会栈溢出。 */
+    private static List<String> topologicalOrder(Map<String, List<String>> parents) {
+        List<String> order = new ArrayList<>(parents.size());
+        Set<String> visited = new HashSet<>();
+        for (String start : parents.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (visited.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : parents.get(id)) {
+                    if (parents.containsKey(parent) && !visited.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    visited.add(id);
+                    order.add(stack.pop());
+                }
+            }
+        }
+        return order;
+    }
+
+    private void rewriteCommit(String id) {
+        Commit original = ObjectStore.readObject(id, Commit.class);
+        Map<String, String> files = new HashMap<>();
+        for (Map.Entry<String, String> entry : original.getPathToBlobID().entrySet()) {
+            files.put(entry.getKey(), rewriteBlob(entry.getValue()));
+        }
+        List<String> parents = new ArrayList<>();
+        for (String parent : original.getParents()) {
+            parents.add(commitIds.getOrDefault(parent, parent));
+        }
+        Commit rewritten = new Commit(original, parents, Tree.build(files));
+        if (!ObjectStore.contains(rewritten.getCommitID())) {
+            rewritten.saveCommit();
+        }
+        commitIds.put(id, rewritten.getCommitID());
+    }
+
+    /** 返回旧blob OLDID按内容算出的新id，新blob不存在时写入。 */
+    private String rewriteBlob(String oldId) {
+        String newId = blobIds.get(oldId);
+        if (newId != null) {
+            return newId;
+        }
+        Blob blob = ObjectStore.readObject(oldId, Blob.class);
+        newId = Blob.contentId(blob.openStream());
+        if (ObjectStore.contains(newId)) {
+            duplicates += 1;
+            duplicateBytes += blob.isChunked()
+                    ? (long) blob.getChunkIds().size() * Utils.UID_LENGTH / 2
+                    : blob.getStoredContent().length;
+        } else {
+            new Blob(newId, blob.getStoredContent(), blob.getChunkIds()).saveBlob();
+        }
+        blobIds.put(oldId, newId);
+        return newId;
+    }
+
+    /** 把暂存区中的blob id换成新的id，写回Stage文件并清空stage-log。 */
+    private void rewriteStage() {
+        StagingArea staging = StagingArea.load();
+        for (Stage stage : List.of(staging.additions(), staging.removals())) {
+            stage.getBlobMap().replaceAll((path, id) -> rewriteBlob(id));
+        }
+        staging.compact();
+    }
+}
@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.restrictedDelete;
+
+/** 从一个commit切换到另一个commit时工作区要做的改动：按blob id比较两个commit的文件，
+ *  删除、新建或更新不同的路径。两边相同的文件还要和工作区比较(见StatCache.matches)，
+ *  被改过或删掉的也重写，所以结果和写出目标commit中的每个文件相同，只是不碰没变的文件。
+ *  checkout分支和reset都用它，加上--verbose时输出各类改动的个数。
+ *
+ *  @author Zhurish
+ */
+class CheckoutPlan {
+    /** 目标commit中新增的文件，路径到blob id。 */
+    private final Map<String, String> created = new TreeMap<>();
+    /** 两边都有但内容不同的文件，以及工作区中和目标commit不同的文件，
+     *  路径到目标commit中的blob id。 */
+    private final Map<String, String> updated = new TreeMap<>();
+    /** 只在当前commit中有的文件。 */
+    private final List<String> deleted = new ArrayList<>();
+
+    private CheckoutPlan() {
+    }
+
+    /** 返回从FROM切换到TO的计划。比较两个根tree决定删除哪些文件，id相同的子树不必逐个
+     *  比较blob id；TO中其余的文件用STATCACHE和工作区比较，不同的加入updated。 */
+    static CheckoutPlan between(Commit from, Commit to, StatCache statCache) {
+        CheckoutPlan plan = new CheckoutPlan();
+        Tree.diff(from.getTreeId(), to.getTreeId(), plan.created, plan.updated, plan.deleted);
+        plan.deleted.sort(null);
+        for (Map.Entry<String, String> file : to.getPathToBlobID().entrySet()) {
+            String path = file.getKey();
+            if (!plan.created.containsKey(path) && !plan.updated.containsKey(path)
+                    && !statCache.matches(new File(path), file.getValue())) {
+                plan.updated.put(path, file.getValue());
+            }
+        }
+        return plan;
+    }
+
+    /** 在工作区中执行：先删除，再并行写出新建和更新的文件(见Materializer)。 */
+    void apply() {
+        for (String path : deleted) {
+            restrictedDelete(new File(path));
+        }
+        Map<String, String> written = new TreeMap<>(created);
+        written.putAll(updated);
+        Materializer.write(written);
+    }
+
+    /** 输出各类改动的个数，--verbose时调用。 */
+    void printCounts() {
+        System.out.printf("%d deleted, %d created, %d updated.%n",
+                deleted.size(), created.size(), updated.size());
+    }
+}
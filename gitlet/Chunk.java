@@ -0,0 +1,35 @@
+package gitlet;
+
+import java.io.Serializable;
+
+/** 大文件切分后的一块内容，以内容的哈希为id保存，相同的块只存一份。
+ *
+ *  @author Zhurish
+ */
+public class Chunk implements Serializable {
+    /** 固定为当前的值，以后改动这个类时已经序列化保存的块仍能读出。 */
+    private static final long serialVersionUID = -6304080948763816884L;
+
+    private byte[] content;
+
+    Chunk(byte[] content) {
+        this.content = content;
+    }
+
+    static String chunkId(byte[] content) {
+        return Utils.sha1("chunk", content);
+    }
+
+    /** 保存这一块，对象库中已有时跳过，返回块的id。 */
+    static String save(byte[] content) {
+        String id = chunkId(content);
+        if (!ObjectStore.contains(id)) {
+            ObjectStore.writeObject(id, new Chunk(content));
+        }
+        return id;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+}
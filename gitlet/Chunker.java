@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** 按内容切分大文件(content-defined chunking)。
+ *  对输入逐字节计算Gear滚动哈希，哈希的低若干位全为0时在此处切开，
+ *  所以切分点只由附近的内容决定：文件中间改一个字节，只有所在的那一块会变，
+ *  前后的块和原来完全相同，在对象库里只存一份。
+ *  块的大小限制在[MIN_SIZE, MAX_SIZE]之间，平均约为AVERAGE_SIZE。
+ *
+ *  @author Zhurish
+ */
+class Chunker {
+    static final int MIN_SIZE = 64 * 1024;
+    static final int AVERAGE_SIZE = 256 * 1024;
+    static final int MAX_SIZE = 1024 * 1024;
+    private static final long MASK = AVERAGE_SIZE - 1;
+
+    /** Gear哈希表，用固定种子生成，保证不同机器上的切分点一致。 */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** 接收切出来的每一块。 */
+    interface ChunkSink {
+        void accept(byte[] chunk) throws IOException;
+    }
+
+    /** 把IN读到结束，依次把每一块交给SINK；任何时候内存中最多只有一块。 */
+    static void split(InputStream in, ChunkSink sink) throws IOException {
+        byte[] chunk = new byte[MAX_SIZE];
+        byte[] buffer = new byte[64 * 1024];
+        int size = 0;
+        long hash = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            for (int i = 0; i < n; i += 1) {
+                chunk[size] = buffer[i];
+                size += 1;
+                hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+                if ((size >= MIN_SIZE && (hash & MASK) == 0) || size == MAX_SIZE) {
+                    sink.accept(Arrays.copyOf(chunk, size));
+                    size = 0;
+                    hash = 0;
+                }
+            }
+        }
+        if (size > 0) {
+            sink.accept(Arrays.copyOf(chunk, size));
+        }
+    }
+}
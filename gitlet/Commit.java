@@ -7,16 +7,14 @@ import java.util.*;
 import java.text.SimpleDateFormat;
 
 
-import static gitlet.Utils.join;
-import static gitlet.Utils.writeObject;
-
-
 /** Represents a gitlet commit object.
  *  does at a high level.
  *
  *  @author Zhurish
  */
 public class Commit implements Serializable {
+    /** 固定为改用ObjectCodec编码之前的值，保证旧的Commit对象仍能反序列化。 */
+    private static final long serialVersionUID = 8086164707215695228L;
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -28,7 +26,8 @@ public class Commit implements Serializable {
     private String message;
     private Date curTime;
     private List<String> parents;
-    private Map<String, String> pathToBlobID;
+    private Map<String, String> pathToBlobID;   //完整的文件列表，由根tree展开或从旧格式的commit对象中读出，用到时才读
+    private String treeId;  //根tree的id，见Tree；旧版本的commit没有，用到时由文件列表生成
     private String id;
     private String timeStamp;
     private File commitSaveFileName;    //commitSaveFileName是commit对象的保存文件名(使用哈希计算的commitID)
@@ -39,6 +38,7 @@ public class Commit implements Serializable {
         this.message = "initial commit";
         this.parents = new ArrayList<>();
         this.pathToBlobID = new HashMap<>();
+        this.treeId = Tree.build(this.pathToBlobID);
         this.timeStamp = dateToTimeStamp(this.curTime);
         this.id = generateID();
         this.commitSaveFileName = generateFileName();
@@ -46,8 +46,14 @@ public class Commit implements Serializable {
 
     //对于commit而言，外部需要确定的东西：commitMessage、parentsId、追踪的pathToBlob哈希表，然后就生成对应的东西
     public Commit(String message, Map<String, String> pathToBlobID, List<String> parents) {
-        this.message = message;
+        this(message, Tree.build(pathToBlobID), parents);
         this.pathToBlobID = pathToBlobID;
+    }
+
+    /** 文件由根tree TREEID给出的新commit，tree已经存入对象库。 */
+    public Commit(String message, String treeId, List<String> parents) {
+        this.message = message;
+        this.treeId = treeId;
         this.parents = parents;
         this.curTime = new Date();
         this.timeStamp = dateToTimeStamp(this.curTime);
@@ -55,22 +61,51 @@ public class Commit implements Serializable {
         this.commitSaveFileName = generateFileName();
     }
 
+    /** 从对象库读出时使用：id就是对象的键，时间戳按提交时的时区偏移ZONEOFFSET(分钟)格式化。
+     *  文件由根tree TREEID给出；版本4之前的格式TREEID为null，文件列表留在对象库中，用到时再读。 */
+    Commit(String id, String message, long time, int zoneOffset, List<String> parents,
+           String treeId) {
+        this.id = id;
+        this.message = message;
+        this.curTime = new Date(time);
+        this.parents = parents;
+        this.treeId = treeId;
+        this.timeStamp = dateToTimeStamp(this.curTime,
+                new SimpleTimeZone(zoneOffset * 60 * 1000, "UTC"));
+        this.commitSaveFileName = generateFileName();
+    }
+
+    /** 迁移时使用：保留ORIGINAL的说明和时间，换上新的PARENTS和根tree，重新计算id。 */
+    Commit(Commit original, List<String> parents, String treeId) {
+        this.message = original.message;
+        this.curTime = original.curTime;
+        this.timeStamp = original.timeStamp;
+        this.parents = parents;
+        this.treeId = treeId;
+        this.id = generateID();
+        this.commitSaveFileName = generateFileName();
+    }
+
     private String generateID() {
-        return Utils.sha1(this.message, this.timeStamp,
-                this.parents.toString(), this.pathToBlobID.toString());
+        return Utils.sha1(this.message, this.timeStamp, this.parents.toString(), this.treeId);
     }
 
     private static String dateToTimeStamp(Date curTime) {
+        return dateToTimeStamp(curTime, TimeZone.getDefault());
+    }
+
+    private static String dateToTimeStamp(Date curTime, TimeZone zone) {
         DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+        dateFormat.setTimeZone(zone);
         return dateFormat.format(curTime);
     }
 
     private File generateFileName() {
-        return join(Repository.OBJECTS_DIR, this.id);
+        return ObjectStore.objectFile(this.id);
     }
 
     public void saveCommit() {
-        writeObject(this.commitSaveFileName, this);
+        ObjectStore.writeObject(this.id, this);
     }
 
     public String getCommitID() {
@@ -78,23 +113,58 @@ public class Commit implements Serializable {
     }
 
     public boolean containsId(String blobId) {
-        return this.pathToBlobID.containsValue(blobId);
+        return getPathToBlobID().containsValue(blobId);
     }
 
+    /** 读出的commit可能在ObjectCache中被多个线程共用，展开文件列表时加锁。
+     *  展开之后通知缓存重新估算大小；这时不持有锁，缓存估算大小时也要调用entryCount。 */
     public Map<String, String> getPathToBlobID() {
-        return this.pathToBlobID;
+        Map<String, String> files;
+        boolean expanded = false;
+        synchronized (this) {
+            if (this.pathToBlobID == null) {
+                this.pathToBlobID = this.treeId != null ? Tree.flatten(this.treeId)
+                        : ObjectStore.readManifest(this.id);
+                expanded = true;
+            }
+            files = this.pathToBlobID;
+        }
+        if (expanded) {
+            ObjectStore.resized(this.id, this);
+        }
+        return files;
+    }
+
+    /** 根tree的id；旧版本的commit第一次调用时由文件列表生成tree并存入对象库。 */
+    String getTreeId() {
+        synchronized (this) {
+            if (this.treeId != null) {
+                return this.treeId;
+            }
+        }
+        String built = Tree.build(getPathToBlobID());   // 相同的文件列表得到相同的id
+        synchronized (this) {
+            if (this.treeId == null) {
+                this.treeId = built;
+            }
+            return this.treeId;
+        }
+    }
+
+    /** 已经展开的文件数，还没有展开时按1计；ObjectCache估算大小时用。 */
+    synchronized int entryCount() {
+        return this.pathToBlobID == null ? 1 : Math.max(1, this.pathToBlobID.size());
     }
 
     public boolean containsPath(String path) {
-        return this.pathToBlobID.containsKey(path);
+        return getPathToBlobID().containsKey(path);
     }
 
     public Blob getBlobByPath(String path) {
         //输入文件的path，返回文件对应的Blob对象
         //根据输入的文件path，通过map找到Blob的id
         //然后根据id找到Blob对象
-        return Utils.readObject(Utils.join
-                (Repository.OBJECTS_DIR, this.pathToBlobID.get(path)), Blob.class);
+        return ObjectStore.readObject(getPathToBlobID().get(path), Blob.class);
     }
 
     public List<String> getParents() {
@@ -102,12 +172,17 @@ public class Commit implements Serializable {
     }
 
     void printCommit() {
+        printCommit(this.id);
+    }
+
+    /** 和printCommit()一样，但commit一行输出SHOWNID(完整的id或它的缩写)。 */
+    void printCommit(String shownId) {
         //按照规定要求，对于mergeCommit输出格式与普通commit(单parent)不同
         if (this.parents.size() == 2) {
-            printMergeCommit();
+            printMergeCommit(shownId);
 
         } else {
-            printSingleCommit();
+            printSingleCommit(shownId);
         }
     }
 
@@ -115,17 +190,30 @@ public class Commit implements Serializable {
         return this.timeStamp;
     }
 
-    private void printSingleCommit() {
+    /** 提交时间，自1970年起的毫秒数。 */
+    long getTime() {
+        return this.curTime.getTime();
+    }
+
+    /** 提交时所在时区相对UTC的偏移(分钟)，取自时间戳末尾的"+0800"部分。 */
+    int getZoneOffset() {
+        String zone = this.timeStamp.substring(this.timeStamp.length() - 5);
+        int minutes = Integer.parseInt(zone.substring(1, 3)) * 60
+                + Integer.parseInt(zone.substring(3, 5));
+        return zone.charAt(0) == '-' ? -minutes : minutes;
+    }
+
+    private void printSingleCommit(String shownId) {
         System.out.println("===");
-        System.out.println("commit " + this.id);
+        System.out.println("commit " + shownId);
         System.out.println("Date: " + this.timeStamp);
         System.out.println(this.message);
         System.out.println();
     }
 
-    private void printMergeCommit() {
+    private void printMergeCommit(String shownId) {
         System.out.println("===");
-        System.out.println("commit " + this.id);
+        System.out.println("commit " + shownId);
         System.out.println("Merge: " + this.parents.get(0).substring(0, 7)
                 + " " + this.parents.get(1).substring(0, 7));
         System.out.println("Date: " + this.timeStamp);
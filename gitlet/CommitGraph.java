@@ -0,0 +1,404 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.join;
+
+/** 提交图文件，记录每个commit的parent、提交时间和代数(generation)，
+ *  遍历历史时只需查表，不必读出commit对象。
+ *
+ *  文件：   "GCGR" | 版本 | 行数 | 256项fan-out表 | 按id排序的行
+ *  行：     20字节二进制id | 第一个parent的行号 | 第二个parent的行号
+ *           | 提交时间(毫秒，8字节) | 代数(4字节)
+ *  没有parent时行号为NONE。根commit的代数为1，其余为各parent代数的最大值加1，
+ *  所以祖先的代数总是小于后代。fan-out表和pack索引的用法一样，见PackFile。
+ *
+ *  每次commit和merge之后把新commit插入并重写整个文件(先写临时文件再改名)，
+ *  读取时内存映射。旧版本留下的commit不在图中时，沿着它的历史读出commit对象补上。
+ *  行按id排序，所以也用作commit id的索引：短id用两次二分查找得到匹配的所有行，
+ *  唯一的最短前缀只需和相邻的两行比较。
+ *
+ *  @author Zhurish
+ */
+class CommitGraph {
+    /** 没有对应的行。 */
+    static final int NONE = -1;
+
+    private static final int MAGIC = 0x47434752;    // "GCGR"
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    private static final int ROW_SIZE = ID_BYTES + 4 + 4 + 8 + 4;
+    private static final int FAN_OUT_SIZE = 256;
+    private static final int HEADER = 12 + FAN_OUT_SIZE * 4;
+
+    private final ByteBuffer graph;
+    private final int count;
+
+    private CommitGraph(ByteBuffer graph) {
+        this.graph = graph;
+        this.count = graph == null ? 0 : graph.getInt(8);
+    }
+
+    /** 当前仓库(见Repository.current)的提交图文件。 */
+    static File graphFile() {
+        return join(Repository.current().gitletDir(), "commit-graph");
+    }
+
+    /** 映射提交图文件；文件不存在时返回一个空图。 */
+    static CommitGraph read() {
+        File file = graphFile();
+        if (!file.isFile()) {
+            return new CommitGraph(null);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer graph = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (graph.getInt(0) != MAGIC || graph.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt commit-graph.");
+            }
+            return new CommitGraph(graph);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 返回包含TIPS及其所有祖先的提交图，缺少的commit先补进文件。 */
+    static CommitGraph covering(String... tips) {
+        CommitGraph graph = read();
+        for (String tip : tips) {
+            if (graph.indexOf(tip) == NONE) {
+                return extend(graph, List.of(tips), Collections.emptyMap());
+            }
+        }
+        return graph;
+    }
+
+    /** 把刚保存的COMMIT加入提交图。parent都已在图中时(通常如此)直接在映射的字节上
+     *  插入一行，只需整体复制一遍并调整行号，不必把所有行解析出来。 */
+    static void add(Commit commit) {
+        CommitGraph graph = read();
+        String id = commit.getCommitID();
+        if (graph.indexOf(id) != NONE) {
+            return;
+        }
+        List<String> parents = commit.getParents();
+        int[] parentRows = {NONE, NONE};
+        int generation = 1;
+        for (int which = 0; which < parents.size(); which += 1) {
+            parentRows[which] = graph.indexOf(parents.get(which));
+            if (parentRows[which] == NONE) {
+                extend(graph, List.of(id), Map.of(id, commit));
+                return;
+            }
+            generation = Math.max(generation, graph.generation(parentRows[which]) + 1);
+        }
+        write(graph.insert(id, parentRows, commit.getTime(), generation));
+    }
+
+    /** 返回在这个图中插入一行之后的文件内容，PARENTROWS是插入前的行号。 */
+    private ByteBuffer insert(String id, int[] parentRows, long time, int generation) {
+        byte[] key = Utils.uidToBytes(id);
+        int pos = -search(key) - 1;
+        ByteBuffer result = ByteBuffer.allocate(HEADER + (count + 1) * ROW_SIZE);
+        result.putInt(MAGIC);
+        result.putInt(VERSION);
+        result.putInt(count + 1);
+        int first = key[0] & 0xff;
+        for (int i = 0; i < FAN_OUT_SIZE; i += 1) {
+            int total = count == 0 ? 0 : graph.getInt(12 + i * 4);
+            result.putInt(i >= first ? total + 1 : total);
+        }
+        for (int row = 0; row <= count; row += 1) {
+            if (row == pos) {
+                result.put(key);
+                result.putInt(shift(parentRows[0], pos));
+                result.putInt(shift(parentRows[1], pos));
+                result.putLong(time);
+                result.putInt(generation);
+            }
+            if (row == count) {
+                break;
+            }
+            int start = HEADER + row * ROW_SIZE;
+            for (int i = 0; i < ID_BYTES; i += 1) {
+                result.put(graph.get(start + i));
+            }
+            result.putInt(shift(parent(row, 0), pos));
+            result.putInt(shift(parent(row, 1), pos));
+            result.putLong(time(row));
+            result.putInt(generation(row));
+        }
+        result.flip();
+        return result;
+    }
+
+    /** 在POS处插入一行后，原来的行号ROW变成多少。 */
+    private static int shift(int row, int pos) {
+        return row == NONE || row < pos ? row : row + 1;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** 返回id所在的行号，不在图中时返回NONE。 */
+    int indexOf(String id) {
+        if (count == 0 || id.length() != Utils.UID_LENGTH) {
+            return NONE;
+        }
+        int row = search(Utils.uidToBytes(id));
+        return row >= 0 ? row : NONE;
+    }
+
+    /** 返回id以十六进制前缀PREFIX开头的行的范围{from, to}(不含to)，
+     *  前缀补0和补f后各做一次二分查找。 */
+    int[] prefixRange(String prefix) {
+        if (count == 0 || !prefix.matches("[0-9a-f]{0," + Utils.UID_LENGTH + "}")) {
+            return new int[]{0, 0};
+        }
+        StringBuilder low = new StringBuilder(prefix);
+        StringBuilder high = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+            high.append('f');
+        }
+        int from = search(Utils.uidToBytes(low.toString()));
+        int to = search(Utils.uidToBytes(high.toString()));
+        return new int[]{from >= 0 ? from : -from - 1, to >= 0 ? to + 1 : -to - 1};
+    }
+
+    /** 返回能在图中唯一确定ROW的最短前缀的长度(不短于MIN_LENGTH)。
+     *  行按id排序，只需和相邻的两行比较。 */
+    int abbreviationLength(int row, int minLength) {
+        int length = minLength;
+        for (int other = row - 1; other <= row + 1; other += 2) {
+            if (other >= 0 && other < count) {
+                length = Math.max(length, commonHexDigits(row, other) + 1);
+            }
+        }
+        return Math.min(length, Utils.UID_LENGTH);
+    }
+
+    private int commonHexDigits(int a, int b) {
+        int digits = 0;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int x = graph.get(HEADER + a * ROW_SIZE + i) & 0xff;
+            int y = graph.get(HEADER + b * ROW_SIZE + i) & 0xff;
+            if (x == y) {
+                digits += 2;
+            } else {
+                return (x >>> 4) == (y >>> 4) ? digits + 1 : digits;
+            }
+        }
+        return digits;
+    }
+
+    /** 二分查找KEY，找到时返回行号，否则和Arrays.binarySearch一样返回(-(插入位置) - 1)。 */
+    private int search(byte[] key) {
+        if (count == 0) {
+            return -1;
+        }
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : graph.getInt(12 + (first - 1) * 4);
+        int hi = graph.getInt(12 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    private int compareAt(int row, byte[] key) {
+        int start = HEADER + row * ROW_SIZE;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int a = graph.get(start + i) & 0xff;
+            int b = key[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    String idAt(int row) {
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            id[i] = graph.get(HEADER + row * ROW_SIZE + i);
+        }
+        return Utils.bytesToUid(id);
+    }
+
+    /** 返回ROW的第WHICH个(0或1)parent的行号，没有时返回NONE。 */
+    int parent(int row, int which) {
+        return graph.getInt(HEADER + row * ROW_SIZE + ID_BYTES + which * 4);
+    }
+
+    long time(int row) {
+        return graph.getLong(HEADER + row * ROW_SIZE + ID_BYTES + 8);
+    }
+
+    int generation(int row) {
+        return graph.getInt(HEADER + row * ROW_SIZE + ID_BYTES + 16);
+    }
+
+    /** 提交图中的一行，重写文件时使用；generation为0表示还没有算出。 */
+    static class Row {
+        final List<String> parents;
+        final long time;
+        int generation;
+
+        Row(List<String> parents, long time) {
+            this(parents, time, 0);
+        }
+
+        private Row(List<String> parents, long time, int generation) {
+            this.parents = parents;
+            this.time = time;
+            this.generation = generation;
+        }
+    }
+
+    /** 不读写文件，直接在内存中由ROWS(id到行)建一个提交图，算出所有代数。
+     *  用于基准测试等不需要仓库的场合。 */
+    static CommitGraph build(TreeMap<String, Row> rows) {
+        for (String id : rows.keySet()) {
+            computeGeneration(id, rows);
+        }
+        return new CommitGraph(encode(rows));
+    }
+
+    /** 沿TIPS的历史找出GRAPH中没有的commit(优先从KNOWN中取，否则读对象库)，
+     *  算出它们的代数后和原有的行一起重写文件，返回新的图。 */
+    private static CommitGraph extend(CommitGraph graph, List<String> tips,
+                                      Map<String, Commit> known) {
+        TreeMap<String, Row> rows = new TreeMap<>();
+        for (int row = 0; row < graph.count; row += 1) {
+            List<String> parents = new ArrayList<>(2);
+            for (int which = 0; which < 2; which += 1) {
+                if (graph.parent(row, which) != NONE) {
+                    parents.add(graph.idAt(graph.parent(row, which)));
+                }
+            }
+            rows.put(graph.idAt(row), new Row(parents, graph.time(row), graph.generation(row)));
+        }
+        Deque<String> pending = new ArrayDeque<>(tips);
+        List<String> added = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (rows.containsKey(id)) {
+                continue;
+            }
+            Commit commit = known.get(id);
+            if (commit == null) {
+                commit = ObjectStore.readObject(id, Commit.class);
+            }
+            rows.put(id, new Row(new ArrayList<>(commit.getParents()), commit.getTime()));
+            added.add(id);
+            pending.addAll(commit.getParents());
+        }
+        for (String id : added) {
+            computeGeneration(id, rows);
+        }
+        write(encode(rows));
+        return read();
+    }
+
+    /** 按parent在前的顺序算出ID及其尚未计算的祖先的代数；用显式的栈，长历史也不会栈溢出。 */
+    private static void computeGeneration(String id, Map<String, Row> rows) {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            Row row = rows.get(stack.peek());
+            if (row.generation > 0) {
+                stack.pop();
+                continue;
+            }
+            int generation = 1;
+            boolean ready = true;
+            for (String parent : row.parents) {
+                int parentGeneration = rows.get(parent).generation;
+                if (parentGeneration == 0) {
+                    stack.push(parent);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, parentGeneration + 1);
+                }
+            }
+            if (ready) {
+                row.generation = generation;
+                stack.pop();
+            }
+        }
+    }
+
+    /** 把GRAPH写成提交图文件(先写临时文件再改名)。log只持有读锁，可能在多个线程中同时
+     *  补全提交图，所以每次用不同名字的临时文件，后改名的覆盖先改名的；缺的commit下次再补。 */
+    private static void write(ByteBuffer graph) {
+        File file = graphFile();
+        File tmp = null;
+        try {
+            tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp").toFile();
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                while (graph.hasRemaining()) {
+                    channel.write(graph);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 按文件格式把ROWS(代数都已算出)编码到一个缓冲区中。 */
+    private static ByteBuffer encode(TreeMap<String, Row> rows) {
+        Map<String, Integer> index = new HashMap<>();
+        int[] fanOut = new int[FAN_OUT_SIZE];
+        for (String id : rows.keySet()) {
+            index.put(id, index.size());
+            fanOut[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        ByteBuffer graph = ByteBuffer.allocate(HEADER + rows.size() * ROW_SIZE);
+        graph.putInt(MAGIC);
+        graph.putInt(VERSION);
+        graph.putInt(rows.size());
+        int total = 0;
+        for (int i = 0; i < FAN_OUT_SIZE; i += 1) {
+            total += fanOut[i];
+            graph.putInt(total);
+        }
+        for (Map.Entry<String, Row> entry : rows.entrySet()) {
+            Row row = entry.getValue();
+            graph.put(Utils.uidToBytes(entry.getKey()));
+            for (int which = 0; which < 2; which += 1) {
+                graph.putInt(which < row.parents.size() ? index.get(row.parents.get(which)) : NONE);
+            }
+            graph.putLong(row.time);
+            graph.putInt(row.generation);
+        }
+        graph.flip();
+        return graph;
+    }
+}
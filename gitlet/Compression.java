@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** 对象内容的压缩。写出的数据以一个标记字节开头：
+ *  STORED表示后面是原始字节，DEFLATED表示后面是Deflater压缩的字节。
+ *  以前没有标记字节的对象是直接的Java序列化数据，总以0xAC(序列化流的魔数)开头，
+ *  读取时照原样返回，所以旧对象无需迁移。
+ *
+ *  @author Zhurish
+ */
+class Compression {
+    static final byte STORED = 0;
+    static final byte DEFLATED = 1;
+    /** Java序列化流的第一个字节。 */
+    private static final byte LEGACY = (byte) 0xAC;
+
+    /** 压缩级别的默认值，和zlib一样取6。 */
+    static final int DEFAULT_LEVEL = 6;
+
+    /** 按配置的core.compression级别压缩BYTES，级别为0时只加标记字节。 */
+    static byte[] compress(byte[] bytes) {
+        return compress(bytes, Config.getInt(Config.COMPRESSION, DEFAULT_LEVEL));
+    }
+
+    static byte[] compress(byte[] bytes, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        if (level == Deflater.NO_COMPRESSION) {
+            out.write(STORED);
+            out.write(bytes, 0, bytes.length);
+            return out.toByteArray();
+        }
+        out.write(DEFLATED);
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** compress的逆操作；旧格式的数据原样返回。 */
+    static byte[] decompress(byte[] stored) {
+        if (stored.length == 0 || stored[0] == LEGACY) {
+            return stored;
+        }
+        if (stored[0] == STORED) {
+            byte[] bytes = new byte[stored.length - 1];
+            System.arraycopy(stored, 1, bytes, 0, bytes.length);
+            return bytes;
+        }
+        if (stored[0] != DEFLATED) {
+            throw new IllegalArgumentException("unknown object encoding");
+        }
+        Inflater inflater = new Inflater();
+        inflater.setInput(stored, 1, stored.length - 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 3);
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("truncated object");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /** 包装IN，边读边解压；旧格式的数据原样读出。 */
+    static InputStream decompressing(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 1);
+        int first = pushback.read();
+        if (first == (LEGACY & 0xff)) {
+            pushback.unread(first);
+            return pushback;
+        }
+        if (first == STORED) {
+            return pushback;
+        }
+        if (first == DEFLATED) {
+            return new InflaterInputStream(pushback);
+        }
+        throw new IllegalArgumentException("unknown object encoding");
+    }
+}
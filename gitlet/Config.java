@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static gitlet.Utils.join;
+
+/** 仓库配置，保存在.gitlet/config中，每行一个 key=value。
+ *  文件不存在或没有某一项时使用调用方给出的默认值。
+ *
+ *  @author Zhurish
+ */
+class Config {
+    /** 对象写入时的Deflater压缩级别(0-9)，0表示不压缩。 */
+    static final String COMPRESSION = "core.compression";
+    /** 超过这个大小(字节)的文件按内容切块存储，见Chunker。 */
+    static final String BIG_FILE_THRESHOLD = "core.bigFileThreshold";
+    /** repack时差量链的最大长度，0表示不做差量压缩。 */
+    static final String PACK_DEPTH = "pack.depth";
+    /** repack时每个对象最多和前面几个候选对象尝试做差量。 */
+    static final String PACK_WINDOW = "pack.window";
+    /** checkout、reset和merge写工作区文件时的线程数，1表示逐个写，见Materializer。 */
+    static final String CHECKOUT_WORKERS = "checkout.workers";
+    /** 解码后的对象缓存的容量(字节)，0表示不缓存，见ObjectCache。 */
+    static final String OBJECT_CACHE_SIZE = "core.objectCacheSize";
+
+    /** 上次读到的配置，和读的是哪个文件。 */
+    private static Properties cached;
+    private static File cachedFile;
+    private static long cachedModified;
+
+    /** 当前仓库(见Repository.current)的配置文件。 */
+    static File configFile() {
+        return join(Repository.current().gitletDir(), "config");
+    }
+
+    static int getInt(String key, int defaultValue) {
+        String value = read().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s in config: %s", key, value);
+        }
+    }
+
+    static long getLong(String key, long defaultValue) {
+        String value = read().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s in config: %s", key, value);
+        }
+    }
+
+    /** 读取配置文件；文件没有变化时直接用上次读到的内容，只多一次stat。 */
+    private static synchronized Properties read() {
+        File file = configFile();
+        long modified = file.lastModified();
+        if (cached != null && file.equals(cachedFile) && modified == cachedModified) {
+            return cached;
+        }
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath())) {
+                properties.load(reader);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        cached = properties;
+        cachedFile = file;
+        cachedModified = modified;
+        return properties;
+    }
+}
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Utils.error;
+import static gitlet.Utils.join;
+import static gitlet.Utils.message;
+
+/** gitlet daemon：常驻的JVM，通过.gitlet/daemon.sock上的Unix域套接字执行命令，
+ *  省掉每条命令启动JVM的时间；读过的对象留在内存中(见ObjectCache)，退出时输出缓存的命中统计。
+ *  HEAD、分支和暂存区可能被不经过daemon的命令改动，每条命令仍从文件读取，它们都很小。
+ *
+ *  请求：    参数个数(4字节) | 各参数(UTF)
+ *  响应：    若干帧 OUT|ERR | 长度(4字节) | 字节，最后是 EXIT | 退出码(4字节)
+ *
+ *  命令在daemon中逐条执行，和单独运行时一样调用Main.main，标准输出和标准错误
+ *  按帧转发给客户端。命令出错时Main中的Utils.exit抛出Exit而不是退出JVM，
+ *  退出码交给客户端，由客户端退出；没有捕获的异常和单独运行时一样输出栈，退出码为1。
+ *  客户端见DaemonClient。
+ *
+ *  daemon在前台运行，.gitlet或套接字文件被删除后自动退出。
+ *
+ *  @author Zhurish
+ */
+class Daemon {
+    static final String SOCKET_NAME = "daemon.sock";
+
+    /** 响应中的帧类型。 */
+    static final byte EXIT = 0;
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+
+    /** 检查套接字文件是否还在的间隔(毫秒)。 */
+    private static final long CHECK_INTERVAL = 1000;
+
+    private static volatile boolean serving;
+
+    private Daemon() {
+    }
+
+    /** 命令结束，STATUS是退出码；只在daemon中由Utils.exit抛出。 */
+    static class Exit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        Exit(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /** daemon正在执行命令时返回true。 */
+    static boolean isServing() {
+        return serving;
+    }
+
+    /** 在REPOSITORY上启动daemon，直到套接字文件被删除。 */
+    static void serve(Repository repository) {
+        if (serving) {
+            throw error("A gitlet daemon is already running.");
+        }
+        if (!UnixSockets.supported()) {
+            throw error("The gitlet daemon needs Java 16 or later.");
+        }
+        File socketFile = join(repository.gitletDir(), SOCKET_NAME);
+        try (ServerSocketChannel server = bind(socketFile); Selector selector = Selector.open()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(socketFile::delete));
+            serving = true;
+            message("Serving gitlet commands on %s.", socketFile.getPath());
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (socketFile.exists()) {
+                if (selector.select(CHECK_INTERVAL) == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                SocketChannel client = server.accept();
+                if (client != null) {
+                    handle(client);
+                }
+            }
+            message("Object cache: %s.", ObjectStore.cacheStats());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            serving = false;
+        }
+    }
+
+    /** 绑定套接字文件SOCKET_FILE。文件已存在时先试着连接：连得上说明已有daemon在运行，
+     *  连不上就是上次没有正常退出留下的，删掉重新绑定。 */
+    private static ServerSocketChannel bind(File socketFile) throws IOException {
+        if (socketFile.exists()) {
+            try {
+                UnixSockets.connect(socketFile.toPath()).close();
+                throw error("A gitlet daemon is already running.");
+            } catch (IOException excp) {
+                socketFile.delete();
+            }
+        }
+        ServerSocketChannel server = UnixSockets.openServer();
+        server.bind(UnixSockets.address(socketFile.toPath()));
+        return server;
+    }
+
+    /** 读出CLIENT的一条命令，执行并把输出和退出码写回。
+     *  客户端中途断开只影响这一条命令。 */
+    private static void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.configureBlocking(true);
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = in.readUTF();
+            }
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            int status = run(args, out);
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** 和单独运行时一样执行ARGS，输出按帧写到OUT，返回退出码。 */
+    private static int run(String[] args, DataOutputStream out) {
+        PrintStream stdout = new PrintStream(new FrameStream(out, OUT), false);
+        PrintStream stderr = new PrintStream(new FrameStream(out, ERR), false);
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        System.setOut(stdout);
+        System.setErr(stderr);
+        int status = 0;
+        try {
+            Main.main(args);
+        } catch (Exit excp) {
+            status = excp.status;
+        } catch (RuntimeException | Error excp) {
+            stderr.print("Exception in thread \"main\" ");
+            excp.printStackTrace(stderr);
+            status = 1;
+        } finally {
+            stdout.flush();
+            stderr.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+        }
+        return status;
+    }
+
+    /** 把写入的字节作为KIND类型的帧写到OUT。 */
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte kind;
+
+        FrameStream(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(kind);
+                out.writeInt(len);
+                out.write(bytes, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
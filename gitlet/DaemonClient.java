@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** gitlet daemon的客户端：用法和Main相同，java gitlet.DaemonClient ARGS。
+ *
+ *  当前目录的.gitlet中有正在运行的daemon时，把命令交给它执行，转发输出并以同样的
+ *  退出码退出；没有daemon(或者Java早于16)时直接在本进程中运行Main，结果一样。
+ *  为了启动得快，有daemon时不加载Repository等类。
+ *
+ *  @author Zhurish
+ */
+public class DaemonClient {
+    private DaemonClient() {
+    }
+
+    public static void main(String[] args) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (SocketChannel daemon = channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(daemon)));
+            out.writeInt(args == null ? 0 : args.length);
+            if (args != null) {
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+            }
+            out.flush();
+            status = relay(new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(daemon))));
+        } catch (IOException excp) {
+            System.err.println("Lost connection to the gitlet daemon: " + excp.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /** 连接当前目录的daemon，没有时返回null。 */
+    private static SocketChannel connect() {
+        Path socket = Paths.get(System.getProperty("user.dir"), ".gitlet", Daemon.SOCKET_NAME);
+        if (!UnixSockets.supported() || !socket.toFile().exists()) {
+            return null;
+        }
+        try {
+            return UnixSockets.connect(socket);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** 把IN中的输出帧转发到标准输出和标准错误，返回最后的退出码。 */
+    private static int relay(DataInputStream in) throws IOException {
+        byte[] buffer = new byte[Utils.BUFFER_SIZE];
+        while (true) {
+            byte kind = in.readByte();
+            if (kind == Daemon.EXIT) {
+                System.out.flush();
+                System.err.flush();
+                return in.readInt();
+            }
+            PrintStream target = kind == Daemon.ERR ? System.err : System.out;
+            int length = in.readInt();
+            while (length > 0) {
+                int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                if (n < 0) {
+                    throw new IOException("unexpected end of output");
+                }
+                target.write(buffer, 0, n);
+                length -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/** 两个版本之间的二进制差量，由复制和插入两种指令组成。
+ *
+ *  差量格式：  结果长度 | 指令...
+ *  COPY：     0x01 | 基准中的偏移 | 长度        从基准复制一段
+ *  INSERT：   0x02 | 长度 | 字节...            直接插入新内容
+ *  所有整数都是变长编码(每字节7位，最高位表示后面还有)。
+ *
+ *  生成时把基准按BLOCK_SIZE字节分块建立哈希表，扫描目标时用每个位置
+ *  开始的一块去表里找匹配，找到后尽量向后延长。
+ *
+ *  @author Zhurish
+ */
+class Delta {
+    private static final int COPY = 0x01;
+    private static final int INSERT = 0x02;
+    private static final int BLOCK_SIZE = 16;
+
+    /** 返回从BASE得到TARGET的差量。 */
+    static byte[] create(byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK_SIZE <= base.length; i += BLOCK_SIZE) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarInt(out, target.length);
+        int pending = 0;    // 还没有输出的插入内容的起点
+        int pos = 0;
+        while (pos + BLOCK_SIZE <= target.length) {
+            Integer match = blocks.get(hash(target, pos));
+            int length = match == null ? 0 : matchLength(base, match, target, pos);
+            if (length < BLOCK_SIZE) {
+                pos += 1;
+                continue;
+            }
+            writeInsert(out, target, pending, pos);
+            out.write(COPY);
+            writeVarInt(out, match);
+            writeVarInt(out, length);
+            pos += length;
+            pending = pos;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** 把差量DELTA作用在BASE上，返回还原的内容。 */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        byte[] result = new byte[readVarInt(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = readVarInt(delta, pos);
+                int length = readVarInt(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else if (op == INSERT) {
+                int length = readVarInt(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, length);
+                pos[0] += length;
+                written += length;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        if (written != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK_SIZE; i += 1) {
+            h = h * 31 + bytes[i];
+        }
+        return h;
+    }
+
+    private static int matchLength(byte[] base, int basePos, byte[] target, int targetPos) {
+        int length = 0;
+        while (basePos + length < base.length && targetPos + length < target.length
+                && base[basePos + length] == target[targetPos + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarInt(out, to - from);
+        out.write(target, from, to - from);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -1,109 +1,150 @@
 package gitlet;
 
-import static gitlet.Utils.message;
+import static gitlet.Utils.error;
+import static gitlet.Utils.exit;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
+ *  命令行参数的检查和分派都在这里，命令本身是当前目录上Repository的方法；
+ *  命令抛出的GitletException在这里输出并结束。调用main的线程绑定到当前目录的仓库
+ *  (见Repository.bindWorkingDirectory)，其他线程不会默认用到它。
  *  @author Zhurish
  */
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS containsId
-     *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        Repository.bindWorkingDirectory();
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            exit(0);
+        }
+    }
+
+    private static void run(String[] args) {
         if (args == null || args.length == 0) {
-            message("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
-                Repository.checkCommandLength(args, 1);
-                Repository.init();
+                checkCommandLength(args, 1);
+                new Repository(Repository.CWD).init();
                 break;
             case "add":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.add(args[1]);
+                checkCommandLength(args, 2);
+                open().add(args[1]);
                 break;
             case "commit":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.commit(args[1]);
+                checkCommandLength(args, 2);
+                open().commit(args[1]);
                 break;
             case "rm":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.rm(args[1]);
+                checkCommandLength(args, 2);
+                open().rm(args[1]);
                 break;
             case "log":
-                Repository.checkCommandLength(args, 1);
-                Repository.checkIfInitialized();
-                Repository.log();
+                if (args.length != 2 || !args[1].equals("--abbrev-commit")) {
+                    checkCommandLength(args, 1);
+                }
+                open().log(args.length == 2);
                 break;
             case "global-log":
-                Repository.checkCommandLength(args, 1);
-                Repository.checkIfInitialized();
-                Repository.globalLog();
+                if (args.length != 2 || !args[1].equals("--abbrev-commit")) {
+                    checkCommandLength(args, 1);
+                }
+                open().globalLog(args.length == 2);
                 break;
             case "find":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.find(args[1]);
+                if (args.length == 3 && args[1].equals("--grep")) {
+                    open().findGrep(args[2]);
+                    break;
+                }
+                checkCommandLength(args, 2);
+                open().find(args[1]);
                 break;
             case "status":
-                Repository.checkCommandLength(args, 1);
-                Repository.checkIfInitialized();
-                Repository.status();
+                checkCommandLength(args, 1);
+                open().status();
                 break;
             case "checkout":
-                Repository.checkIfInitialized();
+                Repository repository = open();
                 switch(args.length) {
                     case 2:
-                        Repository.checkoutBranch(args[1]);
+                        repository.checkoutBranch(args[1]);
                         break;
                     case 3:
+                        if (args[1].equals("--verbose")) {
+                            repository.checkoutBranch(args[2], true);
+                            break;
+                        }
                         if (!args[1].equals("--")) {
-                            message("Incorrect operands.");
-                            System.exit(0);
+                            throw error("Incorrect operands.");
                         }
-                        Repository.checkoutFile(args[2]);
+                        repository.checkoutFile(args[2]);
                         break;
                     case 4:
                         if (!args[2].equals("--")) {
-                            message("Incorrect operands.");
-                            System.exit(0);
+                            throw error("Incorrect operands.");
                         }
-                        Repository.checkoutCommit(args[1], args[3]);
+                        repository.checkoutCommit(args[1], args[3]);
                         break;
                     default:
-                        message("Incorrect operands.");
-                        System.exit(0);
+                        throw error("Incorrect operands.");
                 }
                 break;
             case "branch":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.branch(args[1]);
+                checkCommandLength(args, 2);
+                open().branch(args[1]);
                 break;
             case "rm-branch":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.rmBranch(args[1]);
+                checkCommandLength(args, 2);
+                open().rmBranch(args[1]);
                 break;
             case "reset":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.reset(args[1]);
+                if (args.length == 3 && args[1].equals("--verbose")) {
+                    open().reset(args[2], true);
+                    break;
+                }
+                checkCommandLength(args, 2);
+                open().reset(args[1]);
                 break;
             case "merge":
-                Repository.checkCommandLength(args, 2);
-                Repository.checkIfInitialized();
-                Repository.merge(args[1]);
+                checkCommandLength(args, 2);
+                open().merge(args[1]);
+                break;
+            case "repack":
+                checkCommandLength(args, 1);
+                open().repack();
+                break;
+            case "reindex":
+                checkCommandLength(args, 1);
+                open().reindex();
+                break;
+            case "daemon":
+                checkCommandLength(args, 1);
+                Daemon.serve(open());
+                break;
+            case "migrate-blobs":
+                checkCommandLength(args, 1);
+                open().migrateBlobs();
                 break;
             default:
-                message("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
+        }
+    }
+
+    /** 打开当前目录的仓库，没有初始化时抛出GitletException。 */
+    private static Repository open() {
+        return Repository.open(Repository.CWD);
+    }
+
+    private static void checkCommandLength(String[] args, int length) {
+        if (args.length != length) {
+            throw error("Incorrect operands.");
         }
     }
 }
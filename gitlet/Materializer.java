@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** 把一批blob写到工作区：checkout、reset和merge确定要写哪些文件之后调用。
+ *
+ *  调用线程按顺序把(路径, blob id)放进有界队列，多个工作线程从队列中取出，
+ *  各自读对象、解码、写文件，互不等待。队列满时调用线程等待，所以不管要写多少文件，
+ *  同时在处理中的只有队列长度加线程数个。线程数由配置checkout.workers决定，
+ *  默认是CPU核数，1表示在调用线程中逐个写。运行在Java 21及以上时用虚拟线程，
+ *  否则用普通的守护线程(编译目标是Java 9，所以通过反射调用)。
+ *
+ *  工作线程和调用线程绑定到同一个仓库(见Repository.within)。
+ *  某个文件写失败时其余线程不再写新的文件，全部结束后在调用线程中抛出第一个异常。
+ *
+ *  @author Zhurish
+ */
+class Materializer {
+    /** 每个工作线程对应的队列长度。 */
+    private static final int QUEUE_PER_WORKER = 4;
+    /** 通知工作线程结束的标记，按引用比较。 */
+    private static final Map.Entry<String, String> DONE = new AbstractMap.SimpleEntry<>(null, null);
+    /** Thread.ofVirtual()和Thread.Builder.unstarted(Runnable)，Java 21之前为null。 */
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = ofVirtual.getReturnType().getMethod("unstarted", Runnable.class);
+        } catch (NoSuchMethodException excp) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    private Materializer() {
+    }
+
+    /** 把FILES(路径到blob id)中的每个blob写到对应的路径。 */
+    static void write(Map<String, String> files) {
+        int workers = Math.min(Config.getInt(Config.CHECKOUT_WORKERS,
+                Runtime.getRuntime().availableProcessors()), files.size());
+        if (workers <= 1) {
+            for (Map.Entry<String, String> entry : files.entrySet()) {
+                writeFile(entry);
+            }
+            return;
+        }
+        BlockingQueue<Map.Entry<String, String>> queue =
+                new ArrayBlockingQueue<>(workers * QUEUE_PER_WORKER);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Repository repository = Repository.current();
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i += 1) {
+            threads[i] = newThread(() -> repository.within(() -> drain(queue, failure)));
+            threads[i].start();
+        }
+        try {
+            for (Map.Entry<String, String> entry : files.entrySet()) {
+                if (failure.get() != null) {
+                    break;
+                }
+                queue.put(entry);
+            }
+            for (int i = 0; i < workers; i += 1) {
+                queue.put(DONE);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        rethrow(failure.get());
+    }
+
+    /** 工作线程：不断从QUEUE中取出文件写出，直到取到DONE。出错后只取不写，
+     *  让调用线程不会因为队列满而一直等待。返回值没有用处，只为了能交给within。 */
+    private static Void drain(BlockingQueue<Map.Entry<String, String>> queue,
+                              AtomicReference<Throwable> failure) {
+        try {
+            for (Map.Entry<String, String> entry = queue.take(); entry != DONE;
+                 entry = queue.take()) {
+                if (failure.get() != null) {
+                    continue;
+                }
+                try {
+                    writeFile(entry);
+                } catch (RuntimeException | Error excp) {
+                    failure.compareAndSet(null, excp);
+                }
+            }
+        } catch (InterruptedException excp) {
+            failure.compareAndSet(null, excp);
+        }
+        return null;
+    }
+
+    private static void writeFile(Map.Entry<String, String> entry) {
+        Blob blob = ObjectStore.readObject(entry.getValue(), Blob.class);
+        blob.writeTo(new File(entry.getKey()));
+    }
+
+    private static Thread newThread(Runnable task) {
+        if (OF_VIRTUAL != null) {
+            try {
+                return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+            } catch (ReflectiveOperationException excp) {
+                // 退回到普通线程
+            }
+        }
+        Thread thread = new Thread(task, "gitlet-materializer");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void rethrow(Throwable failure) {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IllegalArgumentException(failure.getMessage());
+    }
+}
@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** 在提交图上求两个commit的最近公共祖先(merge时的split point)。
+ *
+ *  从两个commit同时出发，沿所有parent(包括merge commit的第二个parent)向下走，
+ *  每个commit记下它能从哪一边到达。待访问的commit放在按代数从大到小排列的优先队列里：
+ *  parent的代数总小于child，所以一个commit出队时，所有能到达它的后代都已经处理过，
+ *  它的标记已经完整。第一个同时能从两边到达的commit就是代数最大的公共祖先，
+ *  它不可能是另一个公共祖先的祖先，遍历到此结束，不必走完整个历史。
+ *  代数相同时先取提交时间较晚的，再按行号，结果是确定的。
+ *
+ *  @author Zhurish
+ */
+class MergeBase {
+    private static final int FROM_A = 1;
+    private static final int FROM_B = 2;
+    private static final int FROM_BOTH = FROM_A | FROM_B;
+
+    /** 返回GRAPH中行A和行B的最近公共祖先的行号，没有公共祖先时返回CommitGraph.NONE。 */
+    static int find(CommitGraph graph, int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        Map<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(graph.generation(y), graph.generation(x));
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Long.compare(graph.time(y), graph.time(x));
+            return cmp != 0 ? cmp : Integer.compare(x, y);
+        });
+        flags.put(a, FROM_A);
+        flags.put(b, FROM_B);
+        queue.add(a);
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            int row = queue.poll();
+            int rowFlags = flags.get(row);
+            if (rowFlags == FROM_BOTH) {
+                return row;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int parent = graph.parent(row, which);
+                if (parent == CommitGraph.NONE) {
+                    continue;
+                }
+                int parentFlags = flags.getOrDefault(parent, 0);
+                if ((parentFlags | rowFlags) != parentFlags) {
+                    if (parentFlags == 0) {
+                        queue.add(parent);
+                    }
+                    flags.put(parent, parentFlags | rowFlags);
+                }
+            }
+        }
+        return CommitGraph.NONE;
+    }
+}
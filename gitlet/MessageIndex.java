@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.join;
+
+/** commit说明到commit id的哈希索引，find直接查表，不必读出所有对象。
+ *
+ *  文件：   "GMSG" | 版本 | 桶数 | 条目数 | 各桶第一个条目的偏移(8字节，没有为-1) | 条目...
+ *  条目：   同一桶中下一个条目的偏移(8字节) | 说明的hashCode | 20字节commit id
+ *           | 说明的UTF-8字节数 | 说明
+ *  桶数是2的幂，说明的hashCode取低位定桶。新commit的条目追加在文件末尾并挂到桶的
+ *  链表头上：先写条目、再改桶头、最后改条目数，中途失败只会留下一个没被引用的条目。
+ *  平均每桶超过MAX_LOAD个条目时，按已有的条目重建一个桶数加倍的文件，不必再扫描对象。
+ *
+ *  索引文件不存在(旧仓库)时find退回到扫描所有对象，reindex命令可以重建索引。
+ *
+ *  @author Zhurish
+ */
+class MessageIndex {
+    private static final int MAGIC = 0x474d5347;    // "GMSG"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int INITIAL_BUCKETS = 1024;
+    private static final int MAX_LOAD = 2;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    private static final long NONE = -1;
+
+    /** 当前仓库(见Repository.current)的索引文件。 */
+    static File indexFile() {
+        return join(Repository.current().gitletDir(), "message-index");
+    }
+
+    /** 新建一个空的索引，init时调用。 */
+    static void create() {
+        write(INITIAL_BUCKETS, new ArrayList<>());
+    }
+
+    static boolean exists() {
+        return indexFile().isFile();
+    }
+
+    /** 把刚保存的COMMIT加入索引；索引不存在时什么也不做，以免得到不完整的索引。 */
+    static void add(Commit commit) {
+        if (!exists()) {
+            return;
+        }
+        ByteBuffer index = map();
+        int buckets = index.getInt(8);
+        int count = index.getInt(12);
+        String message = commit.getMessage();
+        if (count + 1 > buckets * MAX_LOAD) {
+            List<Entry> entries = readEntries(index);
+            entries.add(new Entry(commit.getCommitID(), message));
+            write(buckets * 2, entries);
+            return;
+        }
+        long bucketPos = HEADER + (long) bucket(message, buckets) * 8;
+        try (RandomAccessFile file = new RandomAccessFile(indexFile(), "rw")) {
+            long offset = file.length();
+            file.seek(offset);
+            file.write(encodeEntry(index.getLong((int) bucketPos), commit.getCommitID(), message));
+            file.seek(bucketPos);
+            file.writeLong(offset);
+            file.seek(12);
+            file.writeInt(count + 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 按字典序返回说明为MESSAGE的所有commit的id；索引不存在时返回null。 */
+    static List<String> lookup(String message) {
+        if (!exists()) {
+            return null;
+        }
+        ByteBuffer index = map();
+        int buckets = index.getInt(8);
+        int hash = message.hashCode();
+        byte[] key = message.getBytes(StandardCharsets.UTF_8);
+        List<String> ids = new ArrayList<>();
+        long offset = index.getLong(HEADER + bucket(message, buckets) * 8);
+        while (offset != NONE) {
+            int pos = (int) offset;
+            if (index.getInt(pos + 8) == hash && index.getInt(pos + 12 + ID_BYTES) == key.length) {
+                byte[] stored = new byte[key.length];
+                index.position(pos + 16 + ID_BYTES);
+                index.get(stored);
+                if (Arrays.equals(stored, key)) {
+                    byte[] id = new byte[ID_BYTES];
+                    index.position(pos + 12);
+                    index.get(id);
+                    ids.add(Utils.bytesToUid(id));
+                }
+            }
+            offset = index.getLong(pos);
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    /** 扫描对象库中所有的commit，重新生成索引。 */
+    static void rebuild() {
+        List<Entry> entries = new ArrayList<>();
+        for (String id : ObjectStore.allObjectIds()) {
+            if (!ObjectStore.mayBeOfType(id, Commit.class)) {
+                continue;
+            }
+            try {
+                entries.add(new Entry(id, ObjectStore.readObject(id, Commit.class).getMessage()));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+        }
+        int buckets = INITIAL_BUCKETS;
+        while (entries.size() > buckets * MAX_LOAD) {
+            buckets *= 2;
+        }
+        write(buckets, entries);
+    }
+
+    /** 索引中的一条：commit id和它的说明。 */
+    private static class Entry {
+        final String id;
+        final String message;
+
+        Entry(String id, String message) {
+            this.id = id;
+            this.message = message;
+        }
+    }
+
+    private static int bucket(String message, int buckets) {
+        return message.hashCode() & (buckets - 1);
+    }
+
+    private static byte[] encodeEntry(long next, String id, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(16 + ID_BYTES + text.length);
+        entry.putLong(next);
+        entry.putInt(message.hashCode());
+        entry.put(Utils.uidToBytes(id));
+        entry.putInt(text.length);
+        entry.put(text);
+        return entry.array();
+    }
+
+    /** 按文件中的顺序读出INDEX中的所有条目。 */
+    private static List<Entry> readEntries(ByteBuffer index) {
+        int buckets = index.getInt(8);
+        List<Entry> entries = new ArrayList<>();
+        int pos = HEADER + buckets * 8;
+        while (pos + 16 + ID_BYTES <= index.limit()) {
+            int length = index.getInt(pos + 12 + ID_BYTES);
+            if (pos + 16 + ID_BYTES + length > index.limit()) {
+                break;  // 写到一半的条目
+            }
+            byte[] id = new byte[ID_BYTES];
+            index.position(pos + 12);
+            index.get(id);
+            byte[] text = new byte[length];
+            index.position(pos + 16 + ID_BYTES);
+            index.get(text);
+            entries.add(new Entry(Utils.bytesToUid(id), new String(text, StandardCharsets.UTF_8)));
+            pos += 16 + ID_BYTES + text.length;
+        }
+        return entries;
+    }
+
+    /** 用BUCKETS个桶把ENTRIES写成新的索引文件(先写临时文件再改名)。 */
+    private static void write(int buckets, List<Entry> entries) {
+        long[] heads = new long[buckets];
+        Arrays.fill(heads, NONE);
+        List<byte[]> encoded = new ArrayList<>(entries.size());
+        long offset = HEADER + (long) buckets * 8;
+        for (Entry entry : entries) {
+            int bucket = bucket(entry.message, buckets);
+            byte[] bytes = encodeEntry(heads[bucket], entry.id, entry.message);
+            heads[bucket] = offset;
+            encoded.add(bytes);
+            offset += bytes.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER + buckets * 8);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(buckets);
+        header.putInt(entries.size());
+        for (long head : heads) {
+            header.putLong(head);
+        }
+        header.flip();
+        File tmp = new File(indexFile().getPath() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(header);
+                for (byte[] bytes : encoded) {
+                    channel.write(ByteBuffer.wrap(bytes));
+                }
+            }
+            Files.move(tmp.toPath(), indexFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static ByteBuffer map() {
+        try (FileChannel channel = FileChannel.open(indexFile().toPath(), StandardOpenOption.READ)) {
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt message index.");
+            }
+            return index;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
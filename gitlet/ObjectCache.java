@@ -0,0 +1,152 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** 解码后的对象的LRU缓存，ObjectStore.readObject先在这里查找。
+ *
+ *  一条命令中同一个对象常常被读好几次(merge中的commit、冲突文件的blob等)，
+ *  daemon或嵌入使用时缓存在多条命令之间保留。对象按id缓存：id由内容算出，
+ *  对象读出后不再修改，所以缓存不会过期；对象从对象库中删除时由remove移出。
+ *  每个仓库有自己的缓存(见ObjectStore.Storage)，容量按各自的core.objectCacheSize，
+ *  一个仓库读不到只有另一个仓库才有的对象。
+ *
+ *  容量按估算的字节数计：blob按内容的字节数，commit和tree按条目数乘ENTRY_WEIGHT
+ *  (commit的文件列表用到时才展开，放入缓存时还没有展开的只按一个条目计，
+ *  展开之后由reweigh重新估算)。
+ *  超过容量1/8的对象不缓存，免得一个大文件把其余对象都挤出去；大文件的块只在
+ *  流式读取时读一次，也不缓存。
+ *
+ *  可以从多个线程同时调用。
+ *
+ *  @author Zhurish
+ */
+class ObjectCache {
+    /** commit和tree中的一个条目按这么多字节计。 */
+    static final int ENTRY_WEIGHT = 128;
+    /** 每个对象的固定开销。 */
+    private static final int OBJECT_WEIGHT = 64;
+
+    /** 按访问顺序排列，最久没有用过的在最前面。 */
+    private final LinkedHashMap<String, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private long capacity;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** 一个缓存的对象和它的权重。 */
+    private static class Slot {
+        final Object value;
+        final long weight;
+
+        Slot(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** 返回缓存中id为ID的CLS对象，没有(或者类型不同)时返回null。 */
+    synchronized <T> T get(String id, Class<T> cls) {
+        Slot slot = slots.get(id);
+        if (slot == null || !cls.isInstance(slot.value)) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return cls.cast(slot.value);
+    }
+
+    /** 缓存刚从对象库读出的VALUE，超出容量时丢掉最久没有用过的对象。 */
+    synchronized void put(String id, Object value) {
+        long cost = weigh(value);
+        if (cost < 0 || cost > capacity / 8) {
+            return;
+        }
+        Slot old = slots.put(id, new Slot(value, cost));
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += cost;
+        evict();
+    }
+
+    /** 缓存中的VALUE变大了(commit展开了文件列表)，重新估算它的大小；
+     *  超过容量1/8时不再缓存。VALUE不在缓存中时什么也不做。 */
+    synchronized void reweigh(String id, Object value) {
+        Slot slot = slots.get(id);
+        if (slot == null || slot.value != value) {
+            return;
+        }
+        long cost = weigh(value);
+        weight -= slot.weight;
+        if (cost < 0 || cost > capacity / 8) {
+            slots.remove(id);
+            evictions += 1;
+            return;
+        }
+        slots.put(id, new Slot(value, cost));
+        weight += cost;
+        evict();
+    }
+
+    /** 对象ID从对象库中删除了，不再缓存它。 */
+    synchronized void remove(String id) {
+        Slot slot = slots.remove(id);
+        if (slot != null) {
+            weight -= slot.weight;
+        }
+    }
+
+    /** 把容量改为CAPACITY字节，0表示不缓存。 */
+    synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Slot> eldest = slots.values().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** 返回形如"12 hits, 3 misses, 0 evictions, 4096/67108864 bytes"的统计。 */
+    synchronized String stats() {
+        return String.format("%d hits, %d misses, %d evictions, %d/%d bytes",
+                hits, misses, evictions, weight, capacity);
+    }
+
+    /** 估算VALUE占用的字节数，返回-1表示不缓存。 */
+    static long weigh(Object value) {
+        if (value instanceof Chunk) {
+            return -1;
+        }
+        if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            return OBJECT_WEIGHT + (blob.isChunked()
+                    ? (long) blob.getChunkIds().size() * ENTRY_WEIGHT : blob.getContent().length);
+        }
+        if (value instanceof Commit) {
+            return OBJECT_WEIGHT + (long) ((Commit) value).entryCount() * ENTRY_WEIGHT;
+        }
+        if (value instanceof Tree) {
+            return OBJECT_WEIGHT + (long) ((Tree) value).getEntries().size() * ENTRY_WEIGHT;
+        }
+        return OBJECT_WEIGHT;
+    }
+}
@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** 对象库中Blob、Commit、Chunk、Tree的二进制编码，代替Java序列化。
+ *  只写必要的字段，不写类描述；对象自己的id就是它在对象库中的键，也不写入。
+ *
+ *  对象：    版本(1字节) | 类型(1字节) | 内容长度(4字节) | 内容
+ *  BLOB：    是否切块(1字节) | 文件内容  或  块数 | 各块的20字节id
+ *  COMMIT：  提交时间(毫秒，8字节) | 时区偏移(分钟，4字节) | 说明
+ *            | parent个数 | 各parent的20字节id | 根tree的20字节id
+ *  CHUNK：   块的内容
+ *  TREE：    项数 | (名字 | 种类(1字节) | 20字节id)...，按名字排序
+ *  字符串和字节数组都是 4字节长度 | 字节，字符串按UTF-8编码。
+ *
+ *  版本、类型和长度组成固定6字节的头部。版本2起松散对象的头部不压缩，写在压缩的
+ *  内容前面(见ObjectStore)，pack的条目中也单独记录类型，扫描时读几个字节就能知道
+ *  对象的类型和大小；版本1的头部和内容一起压缩，内容格式相同，仍然可以读取。
+ *  版本3起BLOB不再记录路径，路径只保存在commit中，相同内容的文件共用一个blob；
+ *  版本1、2的BLOB开头多一个路径，读取时跳过。
+ *  版本4起COMMIT只记录根tree(见Tree)；之前的版本在parent之后是完整的文件列表：
+ *  文件个数 | (路径 | 20字节blob id)...，文件按路径排序写入。解码这种COMMIT时
+ *  只读到parent为止，文件列表用到时再由decodeManifest读出，log等命令不必解码它。
+ *
+ *  以前用Java序列化写入的对象总以0xAC开头，读取时遇到就交给ObjectInputStream，
+ *  所以旧对象无需迁移，新旧对象可以混在同一个仓库里。这类对象没有类型头，类型为UNKNOWN。
+ *
+ *  @author Zhurish
+ */
+class ObjectCodec {
+    static final byte VERSION = 4;
+    /** COMMIT中还记录完整文件列表的旧版本。 */
+    private static final byte VERSION_3 = 3;
+    /** BLOB中还记录路径的旧版本。 */
+    private static final byte VERSION_2 = 2;
+    /** 头部和内容一起压缩的旧版本。 */
+    private static final byte VERSION_1 = 1;
+    /** 没有类型头的旧对象，只有完整解码才知道类型。 */
+    static final byte UNKNOWN = 0;
+    static final byte BLOB = 1;
+    static final byte COMMIT = 2;
+    static final byte CHUNK = 3;
+    static final byte TREE = 4;
+    /** Java序列化流的第一个字节。 */
+    private static final int LEGACY = 0xAC;
+    /** 版本、类型和长度三项的总长度。 */
+    static final int HEADER_SIZE = 6;
+
+    /** 返回OBJ的编码。 */
+    static byte[] encode(Serializable obj) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte type;
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            if (obj instanceof Blob) {
+                type = BLOB;
+                writeBlob(out, (Blob) obj);
+            } else if (obj instanceof Commit) {
+                type = COMMIT;
+                writeCommit(out, (Commit) obj);
+            } else if (obj instanceof Chunk) {
+                type = CHUNK;
+                out.write(((Chunk) obj).getContent());
+            } else if (obj instanceof Tree) {
+                type = TREE;
+                writeTree(out, (Tree) obj);
+            } else {
+                throw new IllegalArgumentException("cannot encode " + obj.getClass().getName());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream(HEADER_SIZE + body.size());
+        result.write(VERSION);
+        result.write(type);
+        result.write(body.size() >>> 24);
+        result.write(body.size() >>> 16);
+        result.write(body.size() >>> 8);
+        result.write(body.size());
+        result.write(body.toByteArray(), 0, body.size());
+        return result.toByteArray();
+    }
+
+    private static void writeBlob(DataOutputStream out, Blob blob) throws IOException {
+        out.writeBoolean(blob.isChunked());
+        if (blob.isChunked()) {
+            out.writeInt(blob.getChunkIds().size());
+            for (String chunkId : blob.getChunkIds()) {
+                out.write(Utils.uidToBytes(chunkId));
+            }
+        } else {
+            writeBytes(out, blob.getStoredContent());
+        }
+    }
+
+    private static void writeCommit(DataOutputStream out, Commit commit) throws IOException {
+        out.writeLong(commit.getTime());
+        out.writeInt(commit.getZoneOffset());
+        writeString(out, commit.getMessage());
+        out.writeInt(commit.getParents().size());
+        for (String parent : commit.getParents()) {
+            out.write(Utils.uidToBytes(parent));
+        }
+        out.write(Utils.uidToBytes(commit.getTreeId()));
+    }
+
+    private static void writeTree(DataOutputStream out, Tree tree) throws IOException {
+        out.writeInt(tree.getEntries().size());
+        for (Map.Entry<String, Tree.Entry> entry : tree.getEntries().entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeByte(entry.getValue().kind);
+            out.write(Utils.uidToBytes(entry.getValue().id));
+        }
+    }
+
+    /** 从BYTES中解出id为ID的对象。 */
+    static <T extends Serializable> T decode(String id, byte[] bytes, Class<T> expectedClass) {
+        return decode(id, new ByteArrayInputStream(bytes), expectedClass);
+    }
+
+    /** 从IN中读出id为ID的对象并关闭IN。对象不是EXPECTEDCLASS类型时，
+     *  只读过头部就抛出IllegalArgumentException，不会读内容。 */
+    static <T extends Serializable> T decode(String id, InputStream in, Class<T> expectedClass) {
+        try (PushbackInputStream pushback = new PushbackInputStream(in, 1)) {
+            int first = pushback.read();
+            if (first == LEGACY) {
+                pushback.unread(first);
+                return expectedClass.cast(new ObjectInputStream(pushback).readObject());
+            }
+            if (first < VERSION_1 || first > VERSION) {
+                throw new IllegalArgumentException("unknown object format");
+            }
+            DataInputStream data = new DataInputStream(pushback);
+            byte type = data.readByte();
+            int length = data.readInt();
+            if (!expectedClass.isAssignableFrom(classOf(type))) {
+                throw new IllegalArgumentException("not a " + expectedClass.getSimpleName());
+            }
+            switch (type) {
+            case BLOB:
+                if (first <= VERSION_2) {
+                    readString(data);   // 旧版本记录的路径
+                }
+                return expectedClass.cast(readBlob(id, data));
+            case COMMIT:
+                return expectedClass.cast(readCommit(id, data, first <= VERSION_3));
+            case TREE:
+                return expectedClass.cast(readTree(data));
+            default:
+                byte[] content = new byte[length];
+                data.readFully(content);
+                return expectedClass.cast(new Chunk(content));
+            }
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 从IN中读出版本4之前的commit ID在parent之后的完整文件列表，并关闭IN。 */
+    static Map<String, String> decodeManifest(String id, InputStream in) {
+        try (DataInputStream data = new DataInputStream(in)) {
+            int first = data.read();
+            if (first < VERSION_1 || first > VERSION_3 || data.readByte() != COMMIT) {
+                throw new IllegalArgumentException("commit " + id + " has no file list");
+            }
+            data.readInt();
+            readCommit(id, data, true);     // 跳过说明和parent
+            int fileCount = data.readInt();
+            Map<String, String> pathToBlobID = new HashMap<>();
+            for (int i = 0; i < fileCount; i += 1) {
+                String path = readString(data);
+                pathToBlobID.put(path, readId(data));
+            }
+            return pathToBlobID;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 返回以HEAD开头的编码中记录的类型，HEAD至少要有头部的前两个字节；
+     *  没有类型头的旧对象返回UNKNOWN。 */
+    static byte typeOf(byte[] head) {
+        if (head.length < 2 || head[0] < VERSION_1 || head[0] > VERSION) {
+            return UNKNOWN;
+        }
+        return head[1];
+    }
+
+    /** 从头部HEAD和内容的第一个字节FIRSTBODYBYTE算出不切块的blob中文件的大小。
+     *  版本3起不切块的BLOB内容是 0 | 4字节长度 | 文件内容，大小就是内容长度减5；
+     *  其他情况(旧版本、切块存储、不是BLOB)返回-1，只有解码才知道大小。 */
+    static long blobSize(byte[] head, int firstBodyByte) {
+        if (head.length < HEADER_SIZE || head[0] < VERSION_3 || head[0] > VERSION
+                || head[1] != BLOB || firstBodyByte != 0) {
+            return -1;
+        }
+        int length = ((head[2] & 0xff) << 24) | ((head[3] & 0xff) << 16)
+                | ((head[4] & 0xff) << 8) | (head[5] & 0xff);
+        return length - 5;
+    }
+
+    /** 以FIRST开头的松散对象有不压缩的头部时(版本2起)返回true。 */
+    static boolean hasPlainHeader(int first) {
+        return first >= VERSION_2 && first <= VERSION;
+    }
+
+    /** 返回CLS对应的类型。 */
+    static byte typeOf(Class<?> cls) {
+        if (cls == Blob.class) {
+            return BLOB;
+        } else if (cls == Commit.class) {
+            return COMMIT;
+        } else if (cls == Chunk.class) {
+            return CHUNK;
+        } else if (cls == Tree.class) {
+            return TREE;
+        }
+        return UNKNOWN;
+    }
+
+    private static Class<?> classOf(byte type) {
+        switch (type) {
+        case BLOB:
+            return Blob.class;
+        case COMMIT:
+            return Commit.class;
+        case CHUNK:
+            return Chunk.class;
+        case TREE:
+            return Tree.class;
+        default:
+            throw new IllegalArgumentException("unknown object type " + type);
+        }
+    }
+
+    private static Blob readBlob(String id, DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return new Blob(id, readBytes(in), null);
+        }
+        int count = in.readInt();
+        List<String> chunkIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            chunkIds.add(readId(in));
+        }
+        return new Blob(id, null, chunkIds);
+    }
+
+    /** 读出COMMIT；FLAT为true时是版本4之前带完整文件列表的格式，
+     *  只读到parent为止，读出的commit没有根tree，文件列表用到时再读(见decodeManifest)。 */
+    private static Commit readCommit(String id, DataInputStream in, boolean flat)
+            throws IOException {
+        long time = in.readLong();
+        int zoneOffset = in.readInt();
+        String message = readString(in);
+        int parentCount = in.readInt();
+        List<String> parents = new ArrayList<>(parentCount);
+        for (int i = 0; i < parentCount; i += 1) {
+            parents.add(readId(in));
+        }
+        String treeId = flat ? null : readId(in);
+        return new Commit(id, message, time, zoneOffset, parents, treeId);
+    }
+
+    private static Tree readTree(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        TreeMap<String, Tree.Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            String name = readString(in);
+            byte kind = in.readByte();
+            entries.put(name, new Tree.Entry(kind, readId(in)));
+        }
+        return new Tree(entries);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        in.readFully(id);
+        return Utils.bytesToUid(id);
+    }
+}
@@ -0,0 +1,526 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.join;
+
+/** 对象存储的路径解析器。
+ *  objects目录按id的前两位十六进制字符分成最多256个子目录，
+ *  形如 objects/ab/cdef...，避免单个目录下堆积几十万个文件。
+ *  repack之后对象被合并进objects/pack下的packfile，读取时先找松散对象，
+ *  找不到再去pack的索引里二分查找。
+ *  对象按ObjectCodec编码，类型头之后的内容按core.compression压缩，读取时边读边解压
+ *  (见Compression)；扫描时用typeOf只读类型头就能跳过不需要的对象。
+ *  Repository和Commit读写对象时都通过这里定位文件。
+ *
+ *  @author Zhurish
+ */
+public class ObjectStore {
+    /** 子目录名的长度(id的前几位)。 */
+    static final int FAN_OUT_LENGTH = 2;
+
+    private static final String LAYOUT = "fan-out";
+
+    /** 差量链最大长度和候选窗口大小的默认值。 */
+    private static final int DEFAULT_PACK_DEPTH = 10;
+    private static final int DEFAULT_PACK_WINDOW = 10;
+
+    /** 对象缓存容量的默认值：64MB。 */
+    private static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    /** 一个仓库的对象库在进程中的状态，同一个.gitlet目录的所有Repository共用一份
+     *  (见Repository.storage)，不同仓库之间互不影响。 */
+    static final class Storage {
+        /** 已经映射过的pack，以索引文件的路径为键；只在这个Storage上同步后访问。 */
+        private final Map<String, PackFile> openPacks = new HashMap<>();
+        /** 这个仓库读过的对象，daemon中的多条命令共用，见ObjectCache。 */
+        private final ObjectCache cache = new ObjectCache(DEFAULT_CACHE_SIZE);
+    }
+
+    private static Storage storage() {
+        return Repository.current().storage();
+    }
+
+    /** 当前仓库的对象缓存。 */
+    private static ObjectCache cache() {
+        return storage().cache;
+    }
+
+    /** 当前仓库(见Repository.current)的objects目录。 */
+    private static File objectsDir() {
+        return Repository.current().objectsDir();
+    }
+
+    /** 记录对象布局的文件，存在即表示objects已经是分目录布局。 */
+    static File layoutFile() {
+        return join(Repository.current().gitletDir(), "objectLayout");
+    }
+
+    /** 存放packfile及其索引的目录。 */
+    static File packDir() {
+        return join(objectsDir(), "pack");
+    }
+
+    /** 返回id对应的松散对象文件：objects/id前两位/剩余部分。 */
+    public static File objectFile(String id) {
+        return join(objectsDir(), id.substring(0, FAN_OUT_LENGTH),
+                id.substring(FAN_OUT_LENGTH));
+    }
+
+    public static boolean contains(String id) {
+        if (id.length() <= FAN_OUT_LENGTH) {
+            return false;
+        }
+        if (objectFile(id).isFile()) {
+            return true;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 将OBJ以id保存为松散对象，所在子目录不存在时先创建。
+     *  文件开头是不压缩的类型头，后面是压缩后的内容。 */
+    public static void writeObject(String id, Serializable obj) {
+        File file = objectFile(id);
+        file.getParentFile().mkdirs();
+        byte[] encoded = ObjectCodec.encode(obj);
+        byte[] header = Arrays.copyOf(encoded, ObjectCodec.HEADER_SIZE);
+        byte[] body = Arrays.copyOfRange(encoded, ObjectCodec.HEADER_SIZE, encoded.length);
+        Utils.writeContents(file, header, Compression.compress(body));
+    }
+
+    /** 读取id对应的对象，松散对象和pack中的对象读出来没有区别。
+     *  类型不符或对象不存在时抛出IllegalArgumentException。 */
+    public static <T extends Serializable> T readObject(String id, Class<T> expectedClass) {
+        ObjectCache cache = cache();
+        T cached = cache.get(id, expectedClass);
+        if (cached != null) {
+            return cached;
+        }
+        T object = readStoredObject(id, expectedClass);
+        cache.put(id, object);
+        return object;
+    }
+
+    /** 缓存中的OBJECT读出之后变大了(commit展开了文件列表)，重新估算它占用的缓存。 */
+    static void resized(String id, Object object) {
+        cache().reweigh(id, object);
+    }
+
+    /** 按当前仓库的core.objectCacheSize设置对象缓存的容量，打开仓库时调用。 */
+    static void configureCache() {
+        cache().setCapacity(Config.getLong(Config.OBJECT_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+    }
+
+    /** 对象缓存的命中次数等统计，见ObjectCache.stats。 */
+    static String cacheStats() {
+        return cache().stats();
+    }
+
+    private static <T extends Serializable> T readStoredObject(String id, Class<T> expectedClass) {
+        File file = objectFile(id);
+        if (file.isFile()) {
+            return readLooseObject(id, file, expectedClass);
+        }
+        return ObjectCodec.decode(id, readBytes(id), expectedClass);
+    }
+
+    /** 从松散对象文件中边解压边解码，不必先把整个文件读进内存。 */
+    private static <T extends Serializable> T readLooseObject(String id, File file,
+                                                              Class<T> expectedClass) {
+        try {
+            return ObjectCodec.decode(id, openLooseObject(file), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 读出版本4之前的commit ID的完整文件列表。解码这种commit时跳过了文件列表，
+     *  第一次用到时才调用这里，见ObjectCodec.decodeManifest。 */
+    static Map<String, String> readManifest(String id) {
+        File file = objectFile(id);
+        try {
+            InputStream in = file.isFile() ? openLooseObject(file)
+                    : new ByteArrayInputStream(readBytes(id));
+            return ObjectCodec.decodeManifest(id, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 打开松散对象文件，返回编码(类型头和内容)的流，内容边读边解压。 */
+    private static InputStream openLooseObject(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        byte[] header = readHeader(in);
+        return new SequenceInputStream(new ByteArrayInputStream(header), Compression.decompressing(in));
+    }
+
+    /** 从松散对象IN的开头读出不压缩的类型头；早期的对象没有这个头部，
+     *  此时不读任何字节，返回空数组。IN必须支持mark。 */
+    private static byte[] readHeader(InputStream in) throws IOException {
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if (!ObjectCodec.hasPlainHeader(first)) {
+            return new byte[0];
+        }
+        byte[] header = new byte[ObjectCodec.HEADER_SIZE];
+        if (in.readNBytes(header, 0, header.length) < header.length) {
+            throw new IOException("truncated object header");
+        }
+        return header;
+    }
+
+    /** 只读对象开头的几个字节，返回ObjectCodec中的类型常量。
+     *  没有类型头的旧对象返回ObjectCodec.UNKNOWN，只有完整解码才知道类型。 */
+    static byte typeOf(String id) {
+        File file = objectFile(id);
+        if (file.isFile()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64)) {
+                byte[] header = readHeader(in);
+                if (header.length == 0) {
+                    // 类型头和内容一起压缩的对象，只需解压出开头两个字节
+                    // 不足两个字节时ObjectCodec.typeOf返回UNKNOWN
+                    header = new byte[2];
+                    int n = Compression.decompressing(in).readNBytes(header, 0, header.length);
+                    header = Arrays.copyOf(header, n);
+                }
+                return ObjectCodec.typeOf(header);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return pack.typeOf(id);
+            }
+        }
+        throw new IllegalArgumentException("no such object " + id);
+    }
+
+    /** 不解码内容返回blob ID中文件的大小：只读松散对象的头部和压缩内容的第一个字节。
+     *  pack中的对象、旧格式和切块存储的blob返回-1，调用方只能比较内容的哈希。 */
+    static long blobSize(String id) {
+        File file = objectFile(id);
+        if (!file.isFile()) {
+            return -1;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64)) {
+            byte[] header = readHeader(in);
+            if (header.length == 0) {
+                return -1;
+            }
+            return ObjectCodec.blobSize(header, Compression.decompressing(in).read());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** id对应的对象可能是CLS类型时返回true：类型头相符，或者是没有类型头的旧对象。
+     *  扫描所有对象时用它跳过其他类型的对象，不必解码。 */
+    public static boolean mayBeOfType(String id, Class<?> cls) {
+        byte type = typeOf(id);
+        return type == ObjectCodec.UNKNOWN || type == ObjectCodec.typeOf(cls);
+    }
+
+    /** 返回id对应对象编码后(解压后)的字节，见ObjectCodec。 */
+    static byte[] readBytes(String id) {
+        File file = objectFile(id);
+        if (file.isFile()) {
+            byte[] stored = Utils.readContents(file);
+            if (stored.length == 0 || !ObjectCodec.hasPlainHeader(stored[0])) {
+                return Compression.decompress(stored);
+            }
+            int headerSize = ObjectCodec.HEADER_SIZE;
+            byte[] body = Compression.decompress(
+                    Arrays.copyOfRange(stored, headerSize, stored.length));
+            byte[] bytes = Arrays.copyOf(stored, headerSize + body.length);
+            System.arraycopy(body, 0, bytes, headerSize, body.length);
+            return bytes;
+        }
+        for (PackFile pack : packs()) {
+            byte[] bytes = pack.read(id);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        throw new IllegalArgumentException("no such object " + id);
+    }
+
+    /** 按字典序返回所有对象的id。 */
+    public static List<String> allObjectIds() {
+        return objectIdsWithPrefix("");
+    }
+
+    /** 按字典序返回以PREFIX开头的对象id(松散对象和pack中的对象合并去重)。
+     *  前缀不短于两位时只需要列出一个子目录。 */
+    public static List<String> objectIdsWithPrefix(String prefix) {
+        List<String> ids = new ArrayList<>();
+        if (!prefix.matches("[0-9a-f]*")) {
+            return ids;
+        }
+        List<String> shards;
+        if (prefix.length() >= FAN_OUT_LENGTH) {
+            shards = List.of(prefix.substring(0, FAN_OUT_LENGTH));
+        } else {
+            shards = shardNames();
+        }
+        for (String shard : shards) {
+            if (prefix.length() < FAN_OUT_LENGTH && !shard.startsWith(prefix)) {
+                continue;
+            }
+            List<String> names = Utils.plainFilenamesIn(join(objectsDir(), shard));
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String id = shard + name;
+                if (id.startsWith(prefix)) {
+                    ids.add(id);
+                }
+            }
+        }
+        List<PackFile> packs = packs();
+        if (packs.isEmpty()) {
+            return ids;
+        }
+        TreeSet<String> merged = new TreeSet<>(ids);
+        for (PackFile pack : packs) {
+            for (String id : pack.ids()) {
+                if (id.startsWith(prefix)) {
+                    merged.add(id);
+                }
+            }
+        }
+        return new ArrayList<>(merged);
+    }
+
+    private static List<String> shardNames() {
+        List<String> shards = new ArrayList<>();
+        String[] names = objectsDir().list();
+        if (names == null) {
+            return shards;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.length() == FAN_OUT_LENGTH && join(objectsDir(), name).isDirectory()) {
+                shards.add(name);
+            }
+        }
+        return shards;
+    }
+
+    /** 返回当前仓库的所有pack。find --grep会在多个线程中同时读对象，所以在仓库的
+     *  Storage上加锁；不同仓库的pack分开登记，互不影响。 */
+    private static List<PackFile> packs() {
+        List<PackFile> packs = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(packDir());
+        if (names == null) {
+            return packs;
+        }
+        Storage storage = storage();
+        synchronized (storage) {
+            for (String name : names) {
+                if (!name.endsWith(PackFile.INDEX_SUFFIX)) {
+                    continue;
+                }
+                File indexFile = join(packDir(), name);
+                PackFile pack = storage.openPacks.get(indexFile.getPath());
+                if (pack == null) {
+                    pack = new PackFile(indexFile);
+                    storage.openPacks.put(indexFile.getPath(), pack);
+                }
+                packs.add(pack);
+            }
+        }
+        return packs;
+    }
+
+    /** 把所有松散对象和已有的pack合并成一个新的pack，然后删除被合并的文件。
+     *  同一路径的blob尽量写成相对另一个版本的差量，链长不超过配置的pack.depth。
+     *  新pack完整写好之后才删除旧文件，中途失败时仓库仍然可读。 */
+    static void repack() {
+        repack(Collections.emptySet());
+    }
+
+    /** 和repack()一样，但不把DROPPED中的对象写进新pack，它们的松散文件也一并删除。 */
+    private static void repack(Set<String> dropped) {
+        List<String> ids = allObjectIds();
+        ids.removeAll(dropped);
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<PackFile> oldPacks = packs();
+        if (dropped.isEmpty() && oldPacks.size() == 1 && oldPacks.get(0).size() == ids.size()) {
+            return;
+        }
+        int depth = Config.getInt(Config.PACK_DEPTH, DEFAULT_PACK_DEPTH);
+        int window = Config.getInt(Config.PACK_WINDOW, DEFAULT_PACK_WINDOW);
+        Map<String, PackFile.DeltaEntry> deltas = findDeltas(ids, depth, window);
+        File indexFile = PackFile.write(packDir(), ids, ObjectStore::readBytes, deltas);
+        Storage storage = storage();
+        for (PackFile pack : oldPacks) {
+            if (pack.getIndexFile().equals(indexFile)) {
+                continue;
+            }
+            synchronized (storage) {
+                storage.openPacks.remove(pack.getIndexFile().getPath());
+            }
+            pack.getIndexFile().delete();
+            pack.getPackFile().delete();
+        }
+        // 只删除已经写进pack的松散对象，repack期间新写入的对象保留
+        for (String id : ids) {
+            objectFile(id).delete();
+        }
+        for (String id : dropped) {
+            objectFile(id).delete();
+        }
+        for (String shard : shardNames()) {
+            join(objectsDir(), shard).delete();
+        }
+    }
+
+    /** 从对象库中删除IDS中的对象，同时移出对象缓存。松散对象直接删除；
+     *  有对象在pack中时重新打包，新pack中不包含它们。 */
+    static void delete(Collection<String> ids) {
+        Set<String> packed = new HashSet<>();
+        ObjectCache cache = cache();
+        for (String id : ids) {
+            cache.remove(id);
+            objectFile(id).delete();
+            for (PackFile pack : packs()) {
+                if (pack.contains(id)) {
+                    packed.add(id);
+                }
+            }
+        }
+        if (!packed.isEmpty()) {
+            repack(packed);
+        }
+    }
+
+    /** 为IDS中的blob挑选差量基准。
+     *  按commit中记录的路径分组(同一个文件的不同版本最可能相似；blob本身不记录路径，
+     *  被多个路径引用的blob归入第一个遇到的组)，组内按大小从大到小排列，
+     *  每个blob和前面WINDOW个候选各做一次差量，取最小且不超过原大小一半的那个。
+     *  基准总排在目标前面，所以不会出现环；链长达到DEPTH的对象不再作为基准。 */
+    private static Map<String, PackFile.DeltaEntry> findDeltas(List<String> ids, int depth,
+                                                               int window) {
+        Map<String, PackFile.DeltaEntry> deltas = new HashMap<>();
+        if (depth <= 0 || window <= 0) {
+            return deltas;
+        }
+        Map<String, Integer> sizes = new HashMap<>();
+        List<Commit> commits = new ArrayList<>();
+        for (String id : ids) {
+            byte[] bytes = readBytes(id);
+            try {
+                Serializable obj = ObjectCodec.decode(id, bytes, Serializable.class);
+                if (obj instanceof Blob) {
+                    sizes.put(id, bytes.length);
+                } else if (obj instanceof Commit) {
+                    commits.add((Commit) obj);
+                }
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+        }
+        Map<String, List<String>> pathToIds = new HashMap<>();
+        Set<String> grouped = new HashSet<>();
+        for (Commit commit : commits) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(commit.getPathToBlobID()).entrySet()) {
+                String blobId = entry.getValue();
+                if (sizes.containsKey(blobId) && grouped.add(blobId)) {
+                    pathToIds.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(blobId);
+                }
+            }
+        }
+        Map<String, Integer> chainDepth = new HashMap<>();
+        for (List<String> group : pathToIds.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            group.sort((a, b) -> sizes.get(b) - sizes.get(a));
+            ArrayDeque<String> candidates = new ArrayDeque<>();
+            Map<String, byte[]> candidateBytes = new HashMap<>();
+            for (String id : group) {
+                byte[] target = readBytes(id);
+                String bestBase = null;
+                byte[] bestDelta = null;
+                for (String base : candidates) {
+                    if (chainDepth.getOrDefault(base, 0) >= depth) {
+                        continue;
+                    }
+                    byte[] delta = Delta.create(candidateBytes.get(base), target);
+                    if (delta.length < target.length / 2
+                            && (bestDelta == null || delta.length < bestDelta.length)) {
+                        bestBase = base;
+                        bestDelta = delta;
+                    }
+                }
+                if (bestBase != null) {
+                    deltas.put(id, new PackFile.DeltaEntry(bestBase, bestDelta,
+                            ObjectCodec.typeOf(target)));
+                    chainDepth.put(id, chainDepth.getOrDefault(bestBase, 0) + 1);
+                }
+                candidates.addFirst(id);
+                candidateBytes.put(id, target);
+                if (candidates.size() > window) {
+                    candidateBytes.remove(candidates.removeLast());
+                }
+            }
+        }
+        return deltas;
+    }
+
+    /** 新建仓库时调用，直接标记为分目录布局。 */
+    static void initLayout() {
+        Utils.writeContents(layoutFile(), LAYOUT);
+    }
+
+    /** 旧仓库的一次性迁移：把objects下平铺的对象文件移动到对应的子目录，
+     *  完成后写入objectLayout，之后的命令只需检查这一个文件是否存在。 */
+    static void migrateIfNeeded() {
+        if (layoutFile().exists()) {
+            return;
+        }
+        List<String> flatFiles = Utils.plainFilenamesIn(objectsDir());
+        if (flatFiles != null) {
+            for (String id : flatFiles) {
+                if (id.length() != Utils.UID_LENGTH) {
+                    continue;
+                }
+                File target = objectFile(id);
+                target.getParentFile().mkdirs();
+                if (!join(objectsDir(), id).renameTo(target)) {
+                    throw Utils.error("Failed to migrate object %s.", id);
+                }
+            }
+        }
+        initLayout();
+    }
+}
@@ -0,0 +1,339 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** 一个packfile及其索引，都以只读方式内存映射。
+ *
+ *  pack文件：   "GPCK" | 版本 | 对象个数 | 各对象的条目依次拼接
+ *  条目：       FULL  | 对象类型 | 对象的字节
+ *               DELTA | 对象类型 | 20字节基准id | 相对基准的差量(见Delta)
+ *  idx文件：    "GIDX" | 版本 | 对象个数 | 256项fan-out表 | 按id排序的索引项
+ *  索引项：     20字节二进制id | 8字节条目在pack中的偏移 | 4字节条目长度
+ *
+ *  fan-out表第i项是id首字节不大于i的对象个数，查找时先用首字节
+ *  确定区间，再在区间内二分查找。
+ *  对象类型是ObjectCodec中的类型常量，不用解压就能读到，版本4起才有；
+ *  版本3起对象字节和差量都经过Compression压缩；版本2不压缩；
+ *  版本1的pack没有条目类型，直接是对象字节。
+ *
+ *  还原差量对象时要先还原它的基准，沿着差量链一路向上；还原过的基准放在
+ *  BASE_CACHE中，同一条链上的其他版本可以直接复用，不必再从头还原。
+ *
+ *  @author Zhurish
+ */
+class PackFile {
+    static final String PACK_SUFFIX = ".pack";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int PACK_MAGIC = 0x4750434b;   // "GPCK"
+    private static final int INDEX_MAGIC = 0x47494458;  // "GIDX"
+    private static final int VERSION = 4;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    /** 差量基准缓存的容量(字节)。 */
+    private static final long BASE_CACHE_BYTES = 32L << 20;
+    private static final DeltaBaseCache BASE_CACHE = new DeltaBaseCache(BASE_CACHE_BYTES);
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    private static final int ENTRY_SIZE = ID_BYTES + 8 + 4;
+    private static final int FAN_OUT_SIZE = 256;
+    private static final int INDEX_HEADER = 12 + FAN_OUT_SIZE * 4;
+    private static final int PACK_HEADER = 12;
+
+    private final File packFile;
+    private final File indexFile;
+    private final MappedByteBuffer pack;
+    private final MappedByteBuffer index;
+    private final int count;
+    private final int version;
+
+    /** 打开NAME.idx和NAME.pack并映射到内存。 */
+    PackFile(File indexFile) {
+        String name = indexFile.getName();
+        this.indexFile = indexFile;
+        this.packFile = new File(indexFile.getParentFile(),
+                name.substring(0, name.length() - INDEX_SUFFIX.length()) + PACK_SUFFIX);
+        this.index = map(indexFile);
+        this.pack = map(packFile);
+        if (index.getInt(0) != INDEX_MAGIC || pack.getInt(0) != PACK_MAGIC) {
+            throw Utils.error("Corrupt pack %s.", name);
+        }
+        this.count = index.getInt(8);
+        this.version = pack.getInt(4);
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    File getPackFile() {
+        return packFile;
+    }
+
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    int size() {
+        return count;
+    }
+
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** 返回id对应对象的原始字节(差量对象会先还原)，不在这个pack中时返回null。 */
+    byte[] read(String id) {
+        int pos = find(id);
+        if (pos < 0) {
+            return null;
+        }
+        int entry = INDEX_HEADER + pos * ENTRY_SIZE;
+        long offset = index.getLong(entry + ID_BYTES);
+        int length = index.getInt(entry + ID_BYTES + 8);
+        ByteBuffer view = pack.duplicate();
+        view.position((int) offset);
+        if (version == 1) {
+            byte[] bytes = new byte[length];
+            view.get(bytes);
+            return bytes;
+        }
+        byte type = view.get();
+        if (version >= 4) {
+            view.get();     // 对象类型
+            length -= 1;
+        }
+        if (type == FULL) {
+            byte[] bytes = new byte[length - 1];
+            view.get(bytes);
+            return version >= 3 ? Compression.decompress(bytes) : bytes;
+        }
+        byte[] baseId = new byte[ID_BYTES];
+        view.get(baseId);
+        byte[] delta = new byte[length - 1 - ID_BYTES];
+        view.get(delta);
+        if (version >= 3) {
+            delta = Compression.decompress(delta);
+        }
+        return Delta.apply(readBase(Utils.bytesToUid(baseId)), delta);
+    }
+
+    /** 返回id对应对象的类型，只读条目开头的一个字节；
+     *  版本4以前的pack不记录类型，返回ObjectCodec.UNKNOWN。 */
+    byte typeOf(String id) {
+        int pos = find(id);
+        if (pos < 0 || version < 4) {
+            return ObjectCodec.UNKNOWN;
+        }
+        long offset = index.getLong(INDEX_HEADER + pos * ENTRY_SIZE + ID_BYTES);
+        return pack.get((int) offset + 1);
+    }
+
+    private byte[] readBase(String baseId) {
+        byte[] base = BASE_CACHE.get(baseId);
+        if (base == null) {
+            base = read(baseId);
+            if (base == null) {
+                throw Utils.error("Missing delta base %s.", baseId);
+            }
+            BASE_CACHE.put(baseId, base);
+        }
+        return base;
+    }
+
+    /** 按顺序返回pack中所有对象的id。 */
+    List<String> ids() {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            ids.add(idAt(i));
+        }
+        return ids;
+    }
+
+    private String idAt(int pos) {
+        int entry = INDEX_HEADER + pos * ENTRY_SIZE;
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            id[i] = index.get(entry + i);
+        }
+        return Utils.bytesToUid(id);
+    }
+
+    /** 在索引中查找id，返回其序号，找不到返回-1。 */
+    private int find(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.uidToBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(12 + (first - 1) * 4);
+        int hi = index.getInt(12 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareAt(int pos, byte[] key) {
+        int entry = INDEX_HEADER + pos * ENTRY_SIZE;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int a = index.get(entry + i) & 0xff;
+            int b = key[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /** 提供对象原始字节的来源，写pack时逐个读取，避免一次性把所有对象读进内存。 */
+    interface ObjectSource {
+        byte[] read(String id);
+    }
+
+    /** 一个以差量形式存放的对象：基准的id、相对基准的差量和对象本身的类型。 */
+    static class DeltaEntry {
+        final String baseId;
+        final byte[] delta;
+        final byte type;
+
+        DeltaEntry(String baseId, byte[] delta, byte type) {
+            this.baseId = baseId;
+            this.delta = delta;
+            this.type = type;
+        }
+    }
+
+    /** 把IDS(已按字典序排列)对应的对象写成DIR下的一个新pack，返回其索引文件。
+     *  DELTAS中有的对象写成差量条目，其余写完整字节；差量的基准必须也在IDS中。
+     *  pack名由所有id的哈希决定；先写临时文件再改名，写到一半失败不会留下损坏的pack。 */
+    static File write(File dir, List<String> ids, ObjectSource source,
+                      Map<String, DeltaEntry> deltas) {
+        dir.mkdirs();
+        String name = "pack-" + Utils.sha1(String.join("", ids));
+        File packTmp = new File(dir, name + PACK_SUFFIX + ".tmp");
+        File indexTmp = new File(dir, name + INDEX_SUFFIX + ".tmp");
+        long[] offsets = new long[ids.size()];
+        int[] lengths = new int[ids.size()];
+        int level = Config.getInt(Config.COMPRESSION, Compression.DEFAULT_LEVEL);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(packTmp.toPath())))) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.size());
+                long offset = PACK_HEADER;
+                for (int i = 0; i < ids.size(); i += 1) {
+                    DeltaEntry delta = deltas.get(ids.get(i));
+                    int length;
+                    if (delta == null) {
+                        byte[] raw = source.read(ids.get(i));
+                        byte[] bytes = Compression.compress(raw, level);
+                        out.writeByte(FULL);
+                        out.writeByte(ObjectCodec.typeOf(raw));
+                        out.write(bytes);
+                        length = 2 + bytes.length;
+                    } else {
+                        byte[] bytes = Compression.compress(delta.delta, level);
+                        out.writeByte(DELTA);
+                        out.writeByte(delta.type);
+                        out.write(Utils.uidToBytes(delta.baseId));
+                        out.write(bytes);
+                        length = 2 + ID_BYTES + bytes.length;
+                    }
+                    offsets[i] = offset;
+                    lengths[i] = length;
+                    offset += length;
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(indexTmp.toPath())))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.size());
+                writeFanOut(out, ids);
+                for (int i = 0; i < ids.size(); i += 1) {
+                    out.write(Utils.uidToBytes(ids.get(i)));
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File packFile = new File(dir, name + PACK_SUFFIX);
+        File indexFile = new File(dir, name + INDEX_SUFFIX);
+        // 先放pack再放idx，读取方只认idx，所以不会看到没有数据的索引
+        if (!packTmp.renameTo(packFile) || !indexTmp.renameTo(indexFile)) {
+            throw Utils.error("Failed to write pack %s.", name);
+        }
+        return indexFile;
+    }
+
+    private static void writeFanOut(DataOutputStream out, List<String> ids) throws IOException {
+        int[] fanOut = new int[FAN_OUT_SIZE];
+        for (String id : ids) {
+            fanOut[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int i = 0; i < FAN_OUT_SIZE; i += 1) {
+            total += fanOut[i];
+            out.writeInt(total);
+        }
+    }
+
+    /** 按字节数限制大小的LRU缓存，保存还原过的差量基准。 */
+    private static class DeltaBaseCache {
+        private final long capacity;
+        private long size;
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        DeltaBaseCache(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized byte[] get(String id) {
+            return entries.get(id);
+        }
+
+        synchronized void put(String id, byte[] bytes) {
+            if (bytes.length > capacity) {
+                return;
+            }
+            byte[] old = entries.put(id, bytes);
+            if (old != null) {
+                size -= old.length;
+            }
+            size += bytes.length;
+            Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+            while (size > capacity && it.hasNext()) {
+                size -= it.next().getValue().length;
+                it.remove();
+            }
+        }
+    }
+}
@@ -2,10 +2,21 @@ package gitlet;
 
 import static gitlet.Utils.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 /**
  * Represents a gitlet repository.
@@ -25,19 +36,42 @@ public class Repository
     /*
      *   .gitlet
      *      |--objects
-     *      |     |--commits
-     *      |     |--blobs
-     *      |
+     *      |     |--ab            (id前两位，最多256个子目录)
+     *      |          |--cdef...  (id剩余部分，commit、tree和blob都放在这里)
+     *      |--objectLayout
+     *      |--blobFormat      (存在时blob只按内容寻址，见Blob和BlobMigration)
+     *      |--commit-graph    (每个commit的parent、时间和代数，见CommitGraph)
+     *      |--message-index   (commit说明到commit id的索引，见MessageIndex)
+     *      |--trigram-index   (commit说明的三元组索引，find --grep用，见TrigramIndex)
+     *      |--trigram-index.tail
+     *      |--stat-cache      (工作区文件的大小、修改时间和blob id，见StatCache)
+     *      |--daemon.sock     (gitlet daemon运行时的Unix域套接字，见Daemon)
      *      |--refs
      *      |    |--heads
      *      |         |--master
      *      |--HEAD
      *      |--addStage
      *      |--removeStage
+     *      |--stage-log       (addStage和removeStage之后追加的暂存记录，见StagingArea)
      *heads文件夹存放的是分支，文件名是各个分支名，内容是该分支最新的commit的哈希值id
      *HEAD文件内容是当前分支的文件名字符串
      */
 
+    /*
+     *   一个Repository对象绑定一个工作区根目录ROOT，命令都是它的实例方法。
+     *   用户可见的错误抛出GitletException，异常的消息就是要输出的那一行，由Main输出后退出；
+     *   嵌入的调用方自己决定怎么处理，不会因为一条命令出错退出整个JVM。
+     *
+     *   同一个仓库目录共用一把读写锁：log、global-log、find、status只读仓库(status只写回
+     *   stat缓存，见StatCache.save)，持有读锁，可以在多个线程中同时运行；其余命令持有写锁，
+     *   和所有命令互斥。命令中用到的状态(当前commit、暂存区)都是局部变量，不在对象中保存。
+     *
+     *   ObjectStore、Config、各种索引等按"当前仓库"定位文件(见current)：命令执行期间当前线程
+     *   绑定到这个Repository，命令内部启动的工作线程通过within绑定；没有绑定的线程调用它们时
+     *   抛出IllegalStateException，不会悄悄用到别的仓库。只有Main把调用它的线程绑定到当前目录
+     *   的仓库(见bindWorkingDirectory)。下面的静态常量是当前目录的仓库的路径，测试用。
+     */
+
     public static final File CWD = new File(System.getProperty("user.dir"));
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
@@ -46,302 +80,458 @@ public class Repository
     public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
     public static final File ADD_STAGE_DIR = join(GITLET_DIR, "addStage");
     public static final File REMOVE_STAGE_DIR = join(GITLET_DIR, "removeStage");
+    /** log --abbrev-commit输出的id前缀至少这么长，和merge commit的Merge一行一致。 */
+    private static final int MIN_ABBREV_LENGTH = 7;
 
-    private static Commit lastCommit;
-    private static Stage addStage;
-    private static Stage removeStage;
+    /** 当前线程正在执行命令的仓库，见current。 */
+    private static final ThreadLocal<Repository> CURRENT = new ThreadLocal<>();
+    /** 每个.gitlet目录一把读写锁，同一个目录的多个Repository对象共用。 */
+    private static final Map<String, ReentrantReadWriteLock> LOCKS = new ConcurrentHashMap<>();
+    /** 每个.gitlet目录的对象库状态(打开的pack等)，同一个目录的多个Repository对象共用。 */
+    private static final Map<String, ObjectStore.Storage> STORAGE = new ConcurrentHashMap<>();
+    /** 当前目录的仓库，Main用它绑定调用线程。 */
+    private static final Repository DEFAULT = new Repository(CWD);
 
-    private static String getCurrentBranch()
+    private final File root;
+    private final File gitletDir;
+    private final File objectsDir;
+    private final File refsDir;
+    private final File headsDir;
+    private final File headFile;
+    private final File addStageFile;
+    private final File removeStageFile;
+    private final ReentrantReadWriteLock lock;
+    private final ObjectStore.Storage storage;
+
+    /** 工作区根目录为ROOT的仓库，不检查是否已经初始化；init之外的命令用open。 */
+    public Repository(File root)
     {
-        // 读取HEAD文件，获取当前分支的文件路径
-        return readObject(HEAD_FILE, String.class);
+        this.root = root.getAbsoluteFile();
+        gitletDir = join(this.root, ".gitlet");
+        objectsDir = join(gitletDir, "objects");
+        refsDir = join(gitletDir, "refs");
+        headsDir = join(refsDir, "heads");
+        headFile = join(gitletDir, "HEAD");
+        addStageFile = join(gitletDir, "addStage");
+        removeStageFile = join(gitletDir, "removeStage");
+        String key = gitletDir.toPath().normalize().toString();
+        lock = LOCKS.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
+        storage = STORAGE.computeIfAbsent(key, k -> new ObjectStore.Storage());
+    }
+
+    /** 打开ROOT下已经初始化的仓库，需要时先迁移对象布局。 */
+    public static Repository open(File root)
+    {
+        Repository repository = new Repository(root);
+        repository.checkInitialized();
+        return repository;
+    }
+
+    /** 当前线程绑定的仓库；没有绑定时抛出IllegalStateException。 */
+    static Repository current()
+    {
+        Repository repository = CURRENT.get();
+        if (repository == null)
+        {
+            throw new IllegalStateException("No repository is bound to thread "
+                    + Thread.currentThread().getName() + ".");
+        }
+        return repository;
+    }
+
+    /** 当前线程还没有绑定仓库时，绑定到当前目录的仓库，之后一直有效。只由Main调用：
+     *  命令行中运行命令的线程和命令之后用静态方法读仓库的代码(测试)都作用于当前目录。 */
+    static void bindWorkingDirectory()
+    {
+        if (CURRENT.get() == null)
+        {
+            CURRENT.set(DEFAULT);
+        }
     }
 
-    public static void checkCommandLength(String[] args, int length)
+    File gitletDir()
     {
-        if (args.length != length)
+        return gitletDir;
+    }
+
+    File objectsDir()
+    {
+        return objectsDir;
+    }
+
+    /** 这个仓库的对象库在进程中的状态，见ObjectStore.Storage。 */
+    ObjectStore.Storage storage()
+    {
+        return storage;
+    }
+
+    File headsDir()
+    {
+        return headsDir;
+    }
+
+    File addStageFile()
+    {
+        return addStageFile;
+    }
+
+    File removeStageFile()
+    {
+        return removeStageFile;
+    }
+
+    /** 把当前线程绑定到这个仓库运行TASK，结束后恢复原来的绑定。不加锁，
+     *  给命令内部的工作线程(并行流、Materializer)用，锁由发起命令的线程持有。 */
+    <T> T within(Supplier<T> task)
+    {
+        Repository previous = CURRENT.get();
+        CURRENT.set(this);
+        try
+        {
+            return task.get();
+        }
+        finally
         {
-            message("Incorrect operands.");
-            System.exit(0);
+            bind(previous);
         }
     }
 
-    public static void init()
+    private static void bind(Repository repository)
+    {
+        if (repository == null)
+        {
+            CURRENT.remove();
+        }
+        else
+        {
+            CURRENT.set(repository);
+        }
+    }
+
+    /** 持有读锁执行一条命令COMMAND，执行期间当前线程绑定到这个仓库。 */
+    private void reading(Runnable command)
+    {
+        locked(lock.readLock(), command);
+    }
+
+    /** 持有写锁执行一条命令COMMAND，执行期间当前线程绑定到这个仓库。 */
+    private void writing(Runnable command)
+    {
+        locked(lock.writeLock(), command);
+    }
+
+    private void locked(Lock held, Runnable command)
+    {
+        held.lock();
+        try
+        {
+            within(() ->
+            {
+                command.run();
+                return null;
+            });
+        }
+        finally
+        {
+            held.unlock();
+        }
+    }
+
+    /** 以下静态方法作用于当前线程绑定的仓库(Main绑定的是当前目录的仓库)，保留给测试和旧代码。 */
+
+    private static String getCurrentBranch()
+    {
+        return current().currentBranch();
+    }
+
+    public static Commit readLastCommit()
+    {
+        return current().lastCommit();
+    }
+
+    private static Stage readAddStage()
+    {
+        return StagingArea.load().additions();
+    }
+
+    private static Stage readRemoveStage()
+    {
+        return StagingArea.load().removals();
+    }
+
+    /** 仓库没有初始化时输出错误并结束命令。 */
+    public static void checkIfInitialized()
     {
-        if (GITLET_DIR.exists())
+        try
         {
-            message("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            current().checkInitialized();
         }
-        GITLET_DIR.mkdir();
-        OBJECTS_DIR.mkdir();
-        REFS_DIR.mkdir();
-        HEADS_DIR.mkdir();
+        catch (GitletException e)
+        {
+            message(e.getMessage());
+            exit(0);
+        }
+    }
 
-        // 没有Blob文件，生成commit文件，然后是HEAD_FILE,HEADS_DIR中的master
-        Commit initialCommit = initCommit();
-        initHEAD(); // HEAD文件存储的是当前分支的文件路径，是字符串表示的分支名
-        initHeads(
-            initialCommit); // Heads文件夹存放的是分支文件，文件内容是该分支最新的commit的哈希值id(文件名是分支名，文件内容是commitID)
+    private String currentBranch()
+    {
+        // 读取HEAD文件，获取当前分支的文件路径
+        return readObject(headFile, String.class);
     }
 
-    private static Commit initCommit()
+    public void init()
+    {
+        writing(() ->
+        {
+            if (gitletDir.exists())
+            {
+                throw error("A Gitlet version-control system already exists in the current directory.");
+            }
+            gitletDir.mkdir();
+            objectsDir.mkdir();
+            refsDir.mkdir();
+            headsDir.mkdir();
+            ObjectStore.initLayout();
+            Blob.initFormat();
+            MessageIndex.create();
+            TrigramIndex.create();
+
+            // 没有Blob文件，生成commit文件，然后是HEAD_FILE,HEADS_DIR中的master
+            Commit initialCommit = initCommit();
+            initHEAD(); // HEAD文件存储的是当前分支的文件路径，是字符串表示的分支名
+            initHeads(
+                initialCommit); // Heads文件夹存放的是分支文件，文件内容是该分支最新的commit的哈希值id(文件名是分支名，文件内容是commitID)
+        });
+    }
+
+    private Commit initCommit()
     {
         Commit initialCommit = new Commit();
         initialCommit.saveCommit();
+        CommitGraph.add(initialCommit);
+        MessageIndex.add(initialCommit);
+        TrigramIndex.add(initialCommit);
         return initialCommit;
     }
 
-    private static void initHEAD()
+    private void initHEAD()
     {
-        writeObject(HEAD_FILE, "master");
+        writeObject(headFile, "master");
     }
 
-    private static void initHeads(Commit initialCommit)
+    private void initHeads(Commit initialCommit)
     {
-        File master = join(HEADS_DIR, "master");
+        File master = join(headsDir, "master");
         writeObject(master, initialCommit.getCommitID());
     }
 
-    public static void checkIfInitialized()
+    /** 仓库没有初始化时抛出GitletException；对象还是旧的平铺布局时先迁移。 */
+    public void checkInitialized()
     {
-        if (!GITLET_DIR.exists())
+        if (!gitletDir.exists())
         {
-            message("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
+        writing(() ->
+        {
+            ObjectStore.migrateIfNeeded();
+            ObjectStore.configureCache();
+        });
     }
 
-    public static void add(String fileName)
+    public void add(String fileName)
     {
-        File file = getFile(fileName);
-        if (!file.exists())
+        writing(() ->
         {
-            message("File does not exist.");
-            System.exit(0);
-        }
-        Blob blob = new Blob(file); // Blob对象存储add的文件
-        storeBlob(blob);
+            File file = getFile(fileName);
+            if (!file.exists())
+            {
+                throw error("File does not exist.");
+            }
+            // 先按stat缓存得到文件的id，和提交或暂存区中相同时不必读出整个文件
+            StatCache statCache = StatCache.load();
+            String id = statCache.idOf(file);
+            statCache.save();
+            storeBlob(file, id);
+        });
     }
 
-    public static File getFile(String fileString)
+    private File getFile(String fileString)
     {
         // 如果文件字符串是绝对路径，则直接返回文件对象，否则构造绝对路径文件对象
-        return Paths.get(fileString).isAbsolute() ? new File(fileString) : join(CWD, fileString);
+        return Paths.get(fileString).isAbsolute() ? new File(fileString) : join(root, fileString);
     }
 
-    private static void storeBlob(Blob blob)
+    private void storeBlob(File file, String id)
     {
-        Commit previousCommit = readLastCommit();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        String path = blob.getPath();
-        String id = blob.getBlobId();
+        Commit previousCommit = lastCommit();
+        StagingArea staging = StagingArea.load();
+        String path = file.getPath();
         // 针对该文件的各种情况进行考虑：对于commit，不在commit中进；如果在commit中且也在removeStage中，也进
         // 然后进入了，有两种逻辑：添加到addStage中，在removeStage中删除
-        // 对于removeStage中的文件，因为是rm命令加入的，所以addStage中必不含，在removeStage中删除键值对，保存removeStage
-        // 对于addStage中的文件，根据之前是否含有这个path，如果含有则删除path对应的键值对，然后在addStage中添加键值对，保存Blob，最后保存Stage文件
-        if (!previousCommit.containsId(id) || removeStage.containsId(id))
+        // 对于removeStage中的文件，因为是rm命令加入的，所以addStage中必不含，在removeStage中删除键值对
+        // 对于addStage中的文件，保存Blob，然后用新的id覆盖path原来的键值对
+        // 暂存区的改动只在stage-log末尾追加一条记录，不重写整个Stage文件(见StagingArea)
+        // blob的id只取决于内容，不同路径的相同文件id相同，所以都按路径取出id再比较
+        boolean committed = id.equals(previousCommit.getPathToBlobID().get(path));
+        boolean removed = id.equals(staging.removals().getBlobMap().get(path));
+        if (!committed || removed)
         {
-            if (removeStage.containsId(id))
+            if (removed)
             {
-                removeStage.deleteBlobById(id);
-                removeStage.saveStage(REMOVE_STAGE_DIR);
+                staging.unstageRemoval(path);
             }
             else
             {
-                if (!addStage.containsId(id))
+                if (!id.equals(staging.additions().getBlobMap().get(path)))
                 {
-                    if (addStage.containsPath(path))
-                    {
-                        addStage.deleteBlobByPath(path);
-                    }
+                    Blob blob = new Blob(file); // Blob对象存储add的文件
                     blob.saveBlob();
-                    addStage.addBlob(blob);
-                    addStage.saveStage(ADD_STAGE_DIR);
+                    staging.stage(path, blob.getBlobId());
                 }
             }
         }
     }
 
-    private static Stage readRemoveStage()
+    private Commit lastCommit()
     {
-        if (REMOVE_STAGE_DIR.exists())
-        {
-            return readObject(REMOVE_STAGE_DIR, Stage.class);
-        }
-        return new Stage();
-    }
-
-    private static Stage readAddStage()
-    {
-        if (ADD_STAGE_DIR.exists())
-        {
-            return readObject(ADD_STAGE_DIR, Stage.class);
-        }
-        return new Stage();
+        return ObjectStore.readObject(lastCommitId(), Commit.class);
     }
 
-    public static Commit readLastCommit()
+    private String lastCommitId()
     {
         // 读取之前最新的commit:首先读取HEAD文件，获取当前分支的文件路径，然后读取该文件，获取最新的commitID
-        String branchName = readObject(HEAD_FILE, String.class); // HEAD文件获取分支名
-        File branchFile = join(HEADS_DIR, branchName);
-        String commitId = readObject(branchFile, String.class);
-        File commitFile = join(OBJECTS_DIR, commitId);
-        return readObject(commitFile, Commit.class);
+        String branchName = readObject(headFile, String.class); // HEAD文件获取分支名
+        File branchFile = join(headsDir, branchName);
+        return readObject(branchFile, String.class);
     }
 
-    public static void commit(String message)
+    public void commit(String message)
     {
-        lastCommit = readLastCommit();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        checkMessage(message);
-        Commit newCommit = newCommit(message);
-        newCommit.saveCommit();
-        addStage.clear();
-        removeStage.clear();
-        addStage.saveStage(ADD_STAGE_DIR);
-        removeStage.saveStage(REMOVE_STAGE_DIR);
-        alterHEADS(newCommit);
+        writing(() ->
+        {
+            Commit lastCommit = lastCommit();
+            StagingArea staging = StagingArea.load();
+            checkMessage(message);
+            Commit newCommit = newCommit(message, lastCommit, staging.additions(), staging.removals());
+            newCommit.saveCommit();
+            CommitGraph.add(newCommit);
+            MessageIndex.add(newCommit);
+            TrigramIndex.add(newCommit);
+            staging.clear();
+            alterHEADS(newCommit);
+        });
     }
 
-    private static void alterHEADS(Commit newCommit)
+    private void alterHEADS(Commit newCommit)
     {
         // 进行commit操作并未涉及branch的改变，所以直接读取HEAD文件，获取当前分支名
         // 然后在HEADS_DIR中找到该分支文件，将新的commitID写入
-        String branchName = readObject(HEAD_FILE, String.class);
-        File branchFile = join(HEADS_DIR, branchName);
+        String branchName = readObject(headFile, String.class);
+        File branchFile = join(headsDir, branchName);
         writeObject(branchFile, newCommit.getCommitID());
     }
 
-    private static Commit newCommit(String message)
+    private Commit newCommit(String message, Commit lastCommit, Stage addStage, Stage removeStage)
     {
-        ArrayList<String> parents = getParents();
-        HashMap<String, String> commitMap = calculateCommitMap();
-        return new Commit(message, commitMap, parents);
+        ArrayList<String> parents = getParents(lastCommit);
+        String commitTree = calculateCommitTree(lastCommit, addStage, removeStage);
+        return new Commit(message, commitTree, parents);
     }
 
-    private static HashMap<String, String> calculateCommitMap()
+    private String calculateCommitTree(Commit lastCommit, Stage addStage, Stage removeStage)
     {
         // 如果两个stage的map都为空，则报错
-        // 计算的逻辑是这样的：首先照搬previousCommit中的Blob
-        // 对于addStage中的Blob，如果和之前的path一致，表明新提交中要用新的覆盖旧的，所以删去旧的
+        // 计算的逻辑是这样的：在previousCommit的根tree上只改动暂存区中的文件
+        // 对于addStage中的Blob，如果和之前的path一致，表明新提交中要用新的覆盖旧的
         // 对于removeStage中的Blob，直接删去
+        // 只有这些文件所在目录到根的tree会被重写，其余子树原样引用，不必复制整个文件列表
         if (addStage.isEmpty() && removeStage.isEmpty())
         {
-            message("No changes added to the commit.");
-            System.exit(0);
-        }
-        HashMap<String, String> commitMap = new HashMap<>();
-        for (String path : lastCommit.getPathToBlobID().keySet())
-        {
-            String blobID = lastCommit.getPathToBlobID().get(path);
-            commitMap.put(path, blobID);
-        }
-        if (!addStage.isEmpty())
-        {
-            for (String path : addStage.getBlobMap().keySet())
-            {
-                String blobID = addStage.getBlobMap().get(path);
-                commitMap.put(path, blobID);
-            }
+            throw error("No changes added to the commit.");
         }
-        if (!removeStage.isEmpty())
+        Map<String, String> changes = new HashMap<>(addStage.getBlobMap());
+        for (String path : removeStage.getBlobMap().keySet())
         {
-            for (String path : removeStage.getBlobMap().keySet())
-            {
-                commitMap.remove(path);
-            }
+            changes.put(path, null);
         }
-        return commitMap;
+        return Tree.update(lastCommit.getTreeId(), changes);
     }
 
-    private static ArrayList<String> getParents()
+    private ArrayList<String> getParents(Commit lastCommit)
     {
         ArrayList<String> parents = new ArrayList<>();
         parents.add(lastCommit.getCommitID());
         return parents;
     }
 
-    private static void checkMessage(String message)
+    private void checkMessage(String message)
     {
         if (message.equals(""))
         {
-            message("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         }
     }
 
-    public static void rm(String fileString)
+    public void rm(String fileString)
     {
-        // 如果在addStage中追踪，在addStage中删去该键值对（不管是否被上次commit追踪）
-        // 如果没有被addStage追踪且如果在previousCommit中追踪，在removeStage中加入该键值对，并且删除该文件
-        // 如果没有被addStage追踪且没有在previousCommit中追踪，报错
-        File rmFile = getFile(fileString);
-        lastCommit = readLastCommit();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        // 然后根据文件路径判断
-        String path = rmFile.getPath();
-        if (addStage.containsPath(path))
+        writing(() ->
         {
-            addStage.deleteBlobByPath(path);
-            addStage.saveStage(ADD_STAGE_DIR);
-        }
-        else if (lastCommit.containsPath(path))
-        {
-            removeStage.addBlob(lastCommit.getBlobByPath(path));
-            removeStage.saveStage(REMOVE_STAGE_DIR);
-            if (rmFile.exists())
+            // 如果在addStage中追踪，在addStage中删去该键值对（不管是否被上次commit追踪）
+            // 如果没有被addStage追踪且如果在previousCommit中追踪，在removeStage中加入该键值对，并且删除该文件
+            // 如果没有被addStage追踪且没有在previousCommit中追踪，报错
+            File rmFile = getFile(fileString);
+            Commit lastCommit = lastCommit();
+            StagingArea staging = StagingArea.load();
+            // 然后根据文件路径判断
+            String path = rmFile.getPath();
+            if (staging.additions().containsPath(path))
             {
-                restrictedDelete(rmFile);
+                staging.unstage(path);
             }
-        }
-        else
-        {
-            message("No reason to remove the file.");
-            System.exit(0);
-        }
+            else if (lastCommit.containsPath(path))
+            {
+                staging.stageRemoval(path, lastCommit.getPathToBlobID().get(path));
+                if (rmFile.exists())
+                {
+                    restrictedDelete(rmFile);
+                }
+            }
+            else
+            {
+                throw error("No reason to remove the file.");
+            }
+        });
     }
 
-    public static void log()
+    public void log(boolean abbreviate)
     {
-        for (lastCommit = readLastCommit(); hasParentCommit(lastCommit); moveLastToPreviousCommit())
+        reading(() ->
         {
-            lastCommit.printCommit();
-        }
-        lastCommit.printCommit(); // 打印initialCommit
-    }
-
-    public  static void moveLastToPreviousCommit()
-    {
-        // 这里是通过lastCommit全局变量来方便处理，真正的分支lastCommit是通过HEAD文件来获取的，是不变的
-        String parentID = lastCommit.getParents().get(0);
-        File parentFile = join(OBJECTS_DIR, parentID);
-        lastCommit = readObject(parentFile, Commit.class);
-    }
-
-    public static boolean hasParentCommit(Commit curCommit)
-    {
-        return !curCommit.getParents().isEmpty();
+            // 沿提交图的第一个parent向前走，只为打印才读出commit对象
+            String headId = lastCommitId();
+            CommitGraph graph = CommitGraph.covering(headId);
+            for (int row = graph.indexOf(headId); row != CommitGraph.NONE; row = graph.parent(row, 0))
+            {
+                Commit commit = ObjectStore.readObject(graph.idAt(row), Commit.class);
+                commit.printCommit(abbreviate ? abbreviation(graph, row) : commit.getCommitID());
+            }
+        });
     }
 
-    public static void globalLog()
+    public void globalLog(boolean abbreviate)
     {
-        List<String> commitFiles = plainFilenamesIn(OBJECTS_DIR);
-        // 读取./gitlet/objects目录下所有文件(包含Blob和Commit文件)
-        // 读取的文件是所有文件的文件名(相对路径，文件名为id)
-        if (commitFiles != null)
+        reading(() ->
         {
-            for (String idString : commitFiles)
+            CommitGraph graph = CommitGraph.read();
+            for (String idString : scanCommitIds())
             {
                 try
                 {
-                    File commitFile = join(OBJECTS_DIR, idString);
-                    Commit commit = readObject(commitFile, Commit.class);
-                    commit.printCommit();
+                    Commit commit = ObjectStore.readObject(idString, Commit.class);
+                    int row = abbreviate ? graph.indexOf(idString) : CommitGraph.NONE;
+                    // 不在提交图中的旧commit无法确定最短前缀，输出完整的id
+                    commit.printCommit(row != CommitGraph.NONE ? abbreviation(graph, row) : idString);
                     // readObject抛出IllegalArgumentException如果类型错误，捕获后不做处理，处理下一个文件
                 }
                 catch (IllegalArgumentException e)
@@ -349,63 +539,169 @@ public class Repository
                     continue;
                 }
             }
+        });
+    }
+
+    /** 返回GRAPH中第ROW行的commit在所有commit中唯一的最短id前缀。 */
+    private String abbreviation(CommitGraph graph, int row)
+    {
+        return graph.idAt(row).substring(0, graph.abbreviationLength(row, MIN_ABBREV_LENGTH));
+    }
+
+    /** 返回对象库中可能是commit的所有对象的id，按globalLog的输出顺序。 */
+    private List<String> scanCommitIds()
+    {
+        // 读取./gitlet/objects下所有对象(包含Blob和Commit)的id
+        List<String> ids = new ArrayList<>();
+        List<String> objectIds = ObjectStore.allObjectIds();
+        if (objectIds == null)
+        {
+            return ids;
+        }
+        for (String id : objectIds)
+        {
+            // 先只读类型头，Blob等其他对象直接跳过，不必解码
+            if (ObjectStore.mayBeOfType(id, Commit.class))
+            {
+                ids.add(id);
+            }
         }
+        return ids;
     }
 
-    public static void find(String message)
+    public void find(String message)
     {
-        // 读取./gitlet/objects目录下所有文件(包含Blob和Commit文件)
-        // List中是所有objects目录下文件的文件名(相对路径，文件名为id)
-        List<String> fileNameList = plainFilenamesIn(OBJECTS_DIR);
-        boolean containsMessage = false;
-        if (fileNameList != null)
+        reading(() ->
         {
-            for (String fileName : fileNameList)
+            // 先查说明索引；旧仓库没有索引时才扫描所有对象
+            List<String> commitIds = MessageIndex.lookup(message);
+            if (commitIds != null)
             {
-                try
+                for (String commitId : commitIds)
                 {
-                    File commitFile = join(OBJECTS_DIR, fileName);
-                    Commit commit = readObject(commitFile, Commit.class);
-                    if (commit.getMessage().equals(message))
-                    {
-                        containsMessage = true;
-                        System.out.println(commit.getCommitID());
-                    }
+                    System.out.println(commitId);
                 }
-                catch (IllegalArgumentException e)
+                if (commitIds.isEmpty())
                 {
-                    continue;
+                    throw error("Found no commit with that message.");
                 }
+                return;
             }
+            // 读取./gitlet/objects下所有对象(包含Blob和Commit)的id
+            List<String> fileNameList = ObjectStore.allObjectIds();
+            boolean containsMessage = false;
+            if (fileNameList != null)
+            {
+                for (String fileName : fileNameList)
+                {
+                    try
+                    {
+                        if (!ObjectStore.mayBeOfType(fileName, Commit.class))
+                        {
+                            continue;
+                        }
+                        Commit commit = ObjectStore.readObject(fileName, Commit.class);
+                        if (commit.getMessage().equals(message))
+                        {
+                            containsMessage = true;
+                            System.out.println(commit.getCommitID());
+                        }
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        continue;
+                    }
+                }
+            }
+            if (!containsMessage)
+            {
+                throw error("Found no commit with that message.");
+            }
+        });
+    }
+
+    public void findGrep(String regex)
+    {
+        reading(() ->
+        {
+            Pattern pattern;
+            try
+            {
+                pattern = Pattern.compile(regex);
+            }
+            catch (PatternSyntaxException e)
+            {
+                throw error("Invalid regular expression.");
+            }
+            // 三元组索引先排除一定不匹配的commit；旧仓库没有索引时候选是所有commit
+            List<String> candidates = TrigramIndex.candidates(regex);
+            if (candidates == null)
+            {
+                candidates = scanCommitIds();
+                candidates.sort(null);
+            }
+            // 读commit、跑正则互不相关，分给多个核；结果按id排序，输出和顺序执行一样
+            List<String> matches = candidates.parallelStream()
+                .filter(id -> within(() -> messageMatches(id, pattern)))
+                .sorted()
+                .collect(Collectors.toList());
+            for (String commitId : matches)
+            {
+                System.out.println(commitId);
+            }
+            if (matches.isEmpty())
+            {
+                throw error("Found no commit with that message.");
+            }
+        });
+    }
+
+    private boolean messageMatches(String commitId, Pattern pattern)
+    {
+        try
+        {
+            String commitMessage = ObjectStore.readObject(commitId, Commit.class).getMessage();
+            return pattern.matcher(commitMessage).find();
         }
-        if (!containsMessage)
+        catch (IllegalArgumentException e)
         {
-            message("Found no commit with that message.");
-            System.exit(0);
+            return false;
         }
     }
 
-    public static void status()
+    public void status()
     {
-        lastCommit = readLastCommit();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        printBranches();
-        printStagedFiles();
-        printModificationsNotStaged();
-        printUntrackedFiles();
-    }
-    public static Commit getBlobID(){
-        return lastCommit;
+        reading(() ->
+        {
+            Commit lastCommit = lastCommit();
+            StagingArea staging = StagingArea.load();
+            Stage addStage = staging.additions();
+            Stage removeStage = staging.removals();
+            StatCache statCache = StatCache.load();
+            List<String> cwdFiles = plainFilenamesIn(root); // 按名字排序的相对路径
+            printBranches();
+            printStagedFiles(addStage, removeStage);
+            printModificationsNotStaged(lastCommit, addStage, removeStage, statCache, new HashSet<>(cwdFiles));
+            printUntrackedFiles(lastCommit, addStage, removeStage, cwdFiles);
+            // 缓存中只留下提交和暂存区中的文件
+            Set<String> trackedFiles = new HashSet<>(lastCommit.getPathToBlobID().keySet());
+            trackedFiles.addAll(addStage.getBlobMap().keySet());
+            statCache.retainAll(trackedFiles);
+            statCache.save();
+        });
     }
-    private static void printModificationsNotStaged()
+
+    private void printModificationsNotStaged(Commit lastCommit, Stage addStage, Stage removeStage,
+                                             StatCache statCache, Set<String> cwdFiles)
     {
         System.out.println("=== Modifications Not Staged For Commit ===");
         Map<String, String> committedFiles = lastCommit.getPathToBlobID();
         Map<String, String> addStageFiles = addStage.getBlobMap();
         Map<String, String> removeStageFiles = removeStage.getBlobMap();
         Map<String, String> modifiedFiles = new TreeMap<>();
-        List<String> cwdFiles = plainFilenamesIn(CWD); // 这里的文件名是相对路径，而上面的map都是绝对路径
+        // 第一步只用集合分类：工作区中没有的文件直接是deleted，其余的记下应有的blob id，
+        // 第二步再比较内容。cwdFiles中的文件名是相对路径，而上面的map都是绝对路径
+        Map<String, String> expectedIds = new HashMap<>();
         for (String committedFile : committedFiles.keySet())
         {
             // 跟踪在当前提交中，更改在工作目录中，但未暂存;
@@ -417,14 +713,9 @@ public class Repository
             String relativePath = relativize(committedFile);
             if (cwdFiles.contains(relativePath))
             {
-                String blobID = committedFiles.get(committedFile);
-                File blobFile = join(OBJECTS_DIR, blobID);
-                Blob blob = readObject(blobFile, Blob.class);
-                byte[] blobContent = blob.getContent();
-                byte[] cwdContent = readContents(new File(committedFile));
-                if (!Arrays.equals(blobContent, cwdContent) && !addStageFiles.containsKey(committedFile))
+                if (!addStageFiles.containsKey(committedFile))
                 {
-                    modifiedFiles.put(relativePath, "modified");
+                    expectedIds.put(committedFile, committedFiles.get(committedFile));
                 }
             }
             else
@@ -442,21 +733,23 @@ public class Repository
             String relativePath = relativize(addStageFile);
             if (cwdFiles.contains(relativePath))
             {
-                String blobID = addStageFiles.get(addStageFile);
-                File blobFile = join(OBJECTS_DIR, blobID);
-                Blob blob = readObject(blobFile, Blob.class);
-                byte[] blobContent = blob.getContent();
-                byte[] cwdContent = readContents(new File(addStageFile));
-                if (!Arrays.equals(blobContent, cwdContent))
-                {
-                    modifiedFiles.put(relativePath, "modified");
-                }
+                expectedIds.put(addStageFile, addStageFiles.get(addStageFile));
             }
             else
             {
                 modifiedFiles.put(relativePath, "deleted");
             }
         }
+        // 第二步：各文件的比较互不相关，分给fork-join池中的多个线程。
+        // 用和blob相同的算法流式计算工作区文件的id再比较，不必读出blob；
+        // stat数据没有变化的文件直接用stat缓存中的id，不必读文件
+        List<String> changedFiles = expectedIds.keySet().parallelStream()
+            .filter(path -> within(() -> !expectedIds.get(path).equals(statCache.idOf(new File(path)))))
+            .collect(Collectors.toList());
+        for (String changedFile : changedFiles)
+        {
+            modifiedFiles.put(relativize(changedFile), "modified");
+        }
         for (String modifiedFile : modifiedFiles.keySet())
         {
             System.out.println(modifiedFile + " (" + modifiedFiles.get(modifiedFile) + ")");
@@ -464,17 +757,16 @@ public class Repository
         System.out.println();
     }
 
-    private static void printUntrackedFiles()
+    private void printUntrackedFiles(Commit lastCommit, Stage addStage, Stage removeStage, List<String> cwdFiles)
     {
         // 在当前工作目录中，但是既不在暂存区，也不在最新提交中的文件
         System.out.println("=== Untracked Files ===");
         Map<String, String> committedFiles = lastCommit.getPathToBlobID();
         Map<String, String> addStageFiles = addStage.getBlobMap();
         Map<String, String> removeStageFiles = removeStage.getBlobMap();
-        List<String> cwdFiles = plainFilenamesIn(CWD); // 这里的文件名是相对路径，而上面的map都是绝对路径
         for (String cwdFile : cwdFiles)
         {
-            String absolutePath = CWD.toPath().resolve(cwdFile).toString();
+            String absolutePath = root.toPath().resolve(cwdFile).toString();
             if (!committedFiles.containsKey(absolutePath) && !addStageFiles.containsKey(absolutePath) &&
                 !removeStageFiles.containsKey(absolutePath))
             {
@@ -483,7 +775,7 @@ public class Repository
         }
     }
 
-    private static void printStagedFiles()
+    private void printStagedFiles(Stage addStage, Stage removeStage)
     {
         System.out.println("=== Staged Files ===");
         List<String> addStageFileNames = new ArrayList<>(addStage.getBlobMap().keySet());
@@ -505,19 +797,19 @@ public class Repository
         System.out.println();
     }
 
-    private static String relativize(String pathString)
+    private String relativize(String pathString)
     {
         // addStage,removeStage,commit的pathToBlob存储的都是绝对路径，需要进行转换
         Path path = Paths.get(pathString);
-        Path cwdPath = CWD.toPath();
+        Path cwdPath = root.toPath();
         return cwdPath.relativize(path).toString();
     }
 
-    private static void printBranches()
+    private void printBranches()
     {
         System.out.println("=== Branches ===");
-        String curBranch = readObject(HEAD_FILE, String.class);
-        List<String> branchFiles = plainFilenamesIn(HEADS_DIR);
+        String curBranch = readObject(headFile, String.class);
+        List<String> branchFiles = plainFilenamesIn(headsDir);
         if (branchFiles != null)
         {
             Collections.sort(branchFiles);
@@ -536,75 +828,76 @@ public class Repository
         System.out.println();
     }
 
-    public static void checkoutBranch(String branchName)
+    public void checkoutBranch(String branchName)
     {
-        lastCommit = readLastCommit();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        List<String> branchFiles = plainFilenamesIn(HEADS_DIR);
-        // 判断：分支是否存在
-        if (!branchFiles.contains(branchName))
-        {
-            message("No such branch exists.");
-            System.exit(0);
-        }
-        String curBranch = readObject(HEAD_FILE, String.class);
-        // 判断：是否为当前分支
-        if (curBranch.equals(branchName))
-        {
-            message("No need to checkout the current branch.");
-            System.exit(0);
-        }
-        // If a working file is untracked in the current branch
-        //  and would be overwritten by the checkout
-        List<String> untrackedFiles = checkUntrackedFiles(); // 未被当前commit追踪的文件，这里的路径都是绝对路径
-        File assignedbranchFile = join(HEADS_DIR, branchName);
-        String commitId = readObject(assignedbranchFile, String.class);
-        Commit assignedCommit = readObject(join(OBJECTS_DIR, commitId), Commit.class);
-        // 这里有一个问题，如果原分支存在的未被跟踪文件在新分支中，是判断内容相同后报错还是直接报错
-        for (String untrackedFile : untrackedFiles)
+        checkoutBranch(branchName, false);
+    }
+
+    public void checkoutBranch(String branchName, boolean verbose)
+    {
+        writing(() ->
         {
-            if (assignedCommit.containsPath(untrackedFile))
+            Commit lastCommit = lastCommit();
+            List<String> branchFiles = plainFilenamesIn(headsDir);
+            // 判断：分支是否存在
+            if (!branchFiles.contains(branchName))
             {
-                byte[] blobContent = assignedCommit.getBlobByPath(untrackedFile).getContent();
-                byte[] cwdContent = readContents(new File(untrackedFile));
-                if (!Arrays.equals(blobContent, cwdContent))
-                {
-                    message("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
-                }
+                throw error("No such branch exists.");
             }
-        }
-        // 删除所有在当前分支追踪但不在检出分支的文件
-        for (String path : lastCommit.getPathToBlobID().keySet())
-        {
-            if (!assignedCommit.containsPath(path))
+            String curBranch = readObject(headFile, String.class);
+            // 判断：是否为当前分支
+            if (curBranch.equals(branchName))
             {
-                restrictedDelete(new File(path));
+                throw error("No need to checkout the current branch.");
             }
-        }
-        // 将当前分支的文件全部复制到工作目录
-        for (String path : assignedCommit.getPathToBlobID().keySet())
+            // If a working file is untracked in the current branch
+            //  and would be overwritten by the checkout
+            List<String> untrackedFiles = checkUntrackedFiles(lastCommit); // 未被当前commit追踪的文件，这里的路径都是绝对路径
+            File assignedbranchFile = join(headsDir, branchName);
+            String commitId = readObject(assignedbranchFile, String.class);
+            Commit assignedCommit = ObjectStore.readObject(commitId, Commit.class);
+            // 这里有一个问题，如果原分支存在的未被跟踪文件在新分支中，是判断内容相同后报错还是直接报错
+            checkUntrackedOverwrite(untrackedFiles, assignedCommit);
+            // 按blob id比较两个commit，只删除、新建或更新不同的文件；
+            // 相同的文件在工作区中被改过或删掉时也要重写
+            StatCache statCache = StatCache.load();
+            CheckoutPlan plan = CheckoutPlan.between(lastCommit, assignedCommit, statCache);
+            statCache.save();
+            plan.apply();
+            if (verbose)
+            {
+                plan.printCounts();
+            }
+            writeObject(headFile, branchName);
+            StagingArea.load().clear();
+        });
+    }
+
+    private void checkUntrackedOverwrite(List<String> untrackedFiles, Commit assignedCommit)
+    {
+        // 未追踪的文件会被指定commit中内容不同的文件覆盖时报错
+        StatCache statCache = StatCache.load();
+        Map<String, String> assignedFiles = assignedCommit.getPathToBlobID();
+        for (String untrackedFile : untrackedFiles)
         {
-            Blob blob = assignedCommit.getBlobByPath(path);
-            writeContents(new File(path), (Object)blob.getContent());
+            String blobId = assignedFiles.get(untrackedFile);
+            if (blobId != null && !statCache.matches(new File(untrackedFile), blobId))
+            {
+                throw error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
         }
-        writeObject(HEAD_FILE, branchName);
-        addStage.clear();
-        removeStage.clear();
-        addStage.saveStage(ADD_STAGE_DIR);
-        removeStage.saveStage(REMOVE_STAGE_DIR);
+        statCache.save();
     }
 
-    private static List<String> checkUntrackedFiles()
+    private List<String> checkUntrackedFiles(Commit lastCommit)
     {
         // 返回的是未被当前commit追踪的文件
         List<String> untrackedFiles = new ArrayList<>();
-        List<String> cwdFiles = plainFilenamesIn(CWD);
+        List<String> cwdFiles = plainFilenamesIn(root);
         for (String cwdFile : cwdFiles)
         {
-            String absolutePath = CWD.toPath().resolve(cwdFile).toString();
+            String absolutePath = root.toPath().resolve(cwdFile).toString();
             if (!lastCommit.containsPath(absolutePath))
             {
                 untrackedFiles.add(absolutePath);
@@ -613,54 +906,65 @@ public class Repository
         return untrackedFiles;
     }
 
-    public static void checkoutFile(String fileName)
+    public void checkoutFile(String fileName)
     {
-        lastCommit = readLastCommit();
-        String absolutePath = CWD.toPath().resolve(fileName).toString();
-        if (!lastCommit.containsPath(absolutePath))
+        writing(() ->
         {
-            message("File does not exist in that commit.");
-            System.exit(0);
-        }
-        Blob blob = lastCommit.getBlobByPath(absolutePath);
-        writeContents(new File(fileName), (Object)blob.getContent());
+            Commit lastCommit = lastCommit();
+            String absolutePath = root.toPath().resolve(fileName).toString();
+            if (!lastCommit.containsPath(absolutePath))
+            {
+                throw error("File does not exist in that commit.");
+            }
+            Blob blob = lastCommit.getBlobByPath(absolutePath);
+            blob.writeTo(new File(absolutePath));
+        });
     }
 
-    public static void checkoutCommit(String commitId, String fileName)
+    public void checkoutCommit(String commitId, String fileName)
     {
-        String absolutePath = CWD.toPath().resolve(fileName).toString();
-        File commitFile = checkCommitId(commitId);
-        if (commitFile == null)
+        writing(() ->
         {
-            message("No commit with that id exists.");
-            System.exit(0);
-        }
-        Commit assginedcommit = readObject(commitFile, Commit.class);
-        if (!assginedcommit.containsPath(absolutePath))
-        {
-            message("File does not exist in that commit.");
-            System.exit(0);
-        }
-        Blob blob = assginedcommit.getBlobByPath(absolutePath);
-        writeContents(new File(fileName), (Object)blob.getContent());
+            String absolutePath = root.toPath().resolve(fileName).toString();
+            String fullCommitId = checkCommitId(commitId);
+            if (fullCommitId == null)
+            {
+                throw error("No commit with that id exists.");
+            }
+            Commit assginedcommit = ObjectStore.readObject(fullCommitId, Commit.class);
+            if (!assginedcommit.containsPath(absolutePath))
+            {
+                throw error("File does not exist in that commit.");
+            }
+            Blob blob = assginedcommit.getBlobByPath(absolutePath);
+            blob.writeTo(new File(absolutePath));
+        });
     }
 
-    private static File checkCommitId(String commitId)
+    private String checkCommitId(String commitId)
     {
-        // 输入的是commitId的前缀，判断Objects文件夹中是否存在匹配的commit文件，如果存在返回文件，否则返回null
-        // 输入的是40位哈希值的前缀，首先判断文件夹中是否有对应的文件存在，如果存在再进行判断，是否是commit文件，只当是commit文件时才返回File
-        List<String> commitFiles = plainFilenamesIn(OBJECTS_DIR);
-        if (commitFiles != null)
+        // 输入的是commitId的前缀，判断是否存在匹配的commit对象，如果存在返回完整的commitId，否则返回null
+        // 前缀对应多个commit时列出它们并退出，不再随便取第一个
+        // 先在提交图(按id排序)中二分查找，新仓库的每个commit都在图中
+        List<String> matches = new ArrayList<>();
+        CommitGraph graph = CommitGraph.read();
+        int[] range = graph.prefixRange(commitId);
+        for (int row = range[0]; row < range[1]; row += 1)
         {
-            for (String fileName : commitFiles)
+            matches.add(graph.idAt(row));
+        }
+        if (matches.isEmpty())
+        {
+            // 旧版本留下的commit可能不在图中，只好检查对象库中以这个前缀开头的对象
+            // 前缀不短于两位时只需要列出对应的子目录
+            for (String fileName : ObjectStore.objectIdsWithPrefix(commitId))
             {
                 try
                 {
-                    if (fileName.startsWith(commitId))
+                    if (ObjectStore.mayBeOfType(fileName, Commit.class))
                     {
-                        File commitFile = join(OBJECTS_DIR, fileName);
-                        Commit commit = readObject(commitFile, Commit.class);
-                        return commitFile;
+                        ObjectStore.readObject(fileName, Commit.class);
+                        matches.add(fileName);
                     }
                 }
                 catch (IllegalArgumentException e)
@@ -669,210 +973,251 @@ public class Repository
                 }
             }
         }
-        return null;
+        if (matches.size() > 1)
+        {
+            // 匹配的id各占一行，跟在错误消息后面
+            StringBuilder ambiguous = new StringBuilder("Commit id " + commitId + " is ambiguous; it matches:");
+            for (String match : matches)
+            {
+                ambiguous.append(System.lineSeparator()).append(match);
+            }
+            throw new GitletException(ambiguous.toString());
+        }
+        return matches.isEmpty() ? null : matches.get(0);
     }
 
-    public static void branch(String branchName)
+    public void branch(String branchName)
     {
-        lastCommit = readLastCommit();
-        File branchFile = join(HEADS_DIR, branchName);
-        if (branchFile.exists())
+        writing(() ->
         {
-            message("A branch with that name already exists.");
-            System.exit(0);
-        }
-        writeObject(branchFile, lastCommit.getCommitID());
+            Commit lastCommit = lastCommit();
+            File branchFile = join(headsDir, branchName);
+            if (branchFile.exists())
+            {
+                throw error("A branch with that name already exists.");
+            }
+            writeObject(branchFile, lastCommit.getCommitID());
+        });
     }
 
-    public static void rmBranch(String assignedBranch)
+    public void rmBranch(String assignedBranch)
     {
-        String curBranch = readObject(HEAD_FILE, String.class);
-        if (curBranch.equals(assignedBranch))
-        {
-            message("Cannot remove the current branch.");
-            System.exit(0);
-        }
-        File branchFile = join(HEADS_DIR, assignedBranch);
-        if (!branchFile.exists())
+        writing(() ->
         {
-            message("A branch with that name does not exist.");
-            System.exit(0);
-        }
-        branchFile.delete();
+            String curBranch = readObject(headFile, String.class);
+            if (curBranch.equals(assignedBranch))
+            {
+                throw error("Cannot remove the current branch.");
+            }
+            File branchFile = join(headsDir, assignedBranch);
+            if (!branchFile.exists())
+            {
+                throw error("A branch with that name does not exist.");
+            }
+            branchFile.delete();
+        });
     }
 
-    public static void reset(String commitId)
+    public void reset(String commitId)
     {
-        // 首先检查commitId，commitId可能以前缀形式给出
-        File commitFile = checkCommitId(commitId);
-        if (commitFile == null)
-        {
-            message("No commit with that id exists.");
-            System.exit(0);
-        }
-        lastCommit = readLastCommit();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        // 如果指定commit中追踪的文件在当前分支中未被追踪，且文件内容不同，报错
-        List<String> untrackedFiles = checkUntrackedFiles(); // 未被当前commit追踪的文件，这里的路径都是绝对路径
-        Commit assignedCommit = readObject(commitFile, Commit.class);
-        for (String untrackedFile : untrackedFiles)
+        reset(commitId, false);
+    }
+
+    public void reset(String commitId, boolean verbose)
+    {
+        writing(() ->
         {
-            if (assignedCommit.containsPath(untrackedFile))
+            // 首先检查commitId，commitId可能以前缀形式给出
+            String fullCommitId = checkCommitId(commitId);
+            if (fullCommitId == null)
             {
-                byte[] blobContent = assignedCommit.getBlobByPath(untrackedFile).getContent();
-                byte[] cwdContent = readContents(new File(untrackedFile));
-                if (!Arrays.equals(blobContent, cwdContent))
-                {
-                    message("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
-                }
+                throw error("No commit with that id exists.");
             }
-        }
-        // 删除所有在当前分支追踪但不在指定commit中的文件
-        for (String path : lastCommit.getPathToBlobID().keySet())
-        {
-            if (!assignedCommit.containsPath(path))
+            Commit lastCommit = lastCommit();
+            // 如果指定commit中追踪的文件在当前分支中未被追踪，且文件内容不同，报错
+            List<String> untrackedFiles = checkUntrackedFiles(lastCommit); // 未被当前commit追踪的文件，这里的路径都是绝对路径
+            Commit assignedCommit = ObjectStore.readObject(fullCommitId, Commit.class);
+            checkUntrackedOverwrite(untrackedFiles, assignedCommit);
+            // 删除所有在当前分支追踪但不在指定commit中的文件，新建或更新指定commit中不同的文件，
+            // 以及工作区中和指定commit不同的文件(reset到当前commit时丢弃工作区的改动)
+            StatCache statCache = StatCache.load();
+            CheckoutPlan plan = CheckoutPlan.between(lastCommit, assignedCommit, statCache);
+            statCache.save();
+            plan.apply();
+            if (verbose)
             {
-                restrictedDelete(new File(path));
+                plan.printCounts();
             }
-        }
-        for (String path : assignedCommit.getPathToBlobID().keySet())
-        {
-            Blob blob = assignedCommit.getBlobByPath(path);
-            writeContents(new File(path), (Object)blob.getContent());
-        }
-        // 将当前分支的指针移向指定commit，清空并保存缓冲区
-        String assignedCommitId = assignedCommit.getCommitID();
-        File curBranchFile = join(HEADS_DIR, readObject(HEAD_FILE, String.class));
-        writeObject(curBranchFile, assignedCommitId);
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        addStage.clear();
-        removeStage.clear();
-        addStage.saveStage(ADD_STAGE_DIR);
-        removeStage.saveStage(REMOVE_STAGE_DIR);
-    }
-
-    public static void merge(String targetBranch)
-    {
-        lastCommit = readLastCommit();
-        String curCommitId = lastCommit.getCommitID();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        File targetBranchFile = join(HEADS_DIR, targetBranch); // 目标分支文件，存储目标分支最后一个commit的id
-        String curBranch = readObject(HEAD_FILE, String.class); // 当前分支名
-        if (!addStage.isEmpty() || !removeStage.isEmpty())
-        {
-            message("You have uncommitted changes.");
-            System.exit(0);
-        }
-        if (!targetBranchFile.exists())
-        {
-            message("A branch with that name does not exist.");
-            System.exit(0);
-        }
-        if (curBranch.equals(targetBranch))
-        {
-            message("Cannot merge a branch with itself.");
-            System.exit(0);
-        }
-        String targetBranchCommitId = readObject(targetBranchFile, String.class);
-        Commit targetCommit = readObject(join(OBJECTS_DIR, targetBranchCommitId), Commit.class);
-        String splitPointId = findSplitPoint(targetCommit);
-        Commit splitPoint = readObject(join(OBJECTS_DIR, splitPointId), Commit.class);
-        if (splitPointId.equals(targetBranchCommitId))
-        {
-            message("Given branch is an ancestor of the current branch.");
-            System.exit(0);
-        }
-        if (splitPointId.equals(curCommitId))
-        {
-            message("Current branch fast-forwarded.");
-            checkoutBranch(targetBranch);
-            return;
-        }
-        lastCommit = readLastCommit();
-        Map<String, String> splitPointMap = splitPoint.getPathToBlobID();
-        Map<String, String> curCommitMap = lastCommit.getPathToBlobID();
-        Map<String, String> targetCommitMap = targetCommit.getPathToBlobID();
-        Map<String, String> overwriteMap = overWriteFiles(splitPointMap, curCommitMap, targetCommitMap);
-        Map<String, String> writeMap = writeMap(splitPointMap, curCommitMap, targetCommitMap);
-        Map<String, String> removeMap = removeMap(splitPointMap, curCommitMap, targetCommitMap);
-        checkMerge(writeMap, removeMap, curCommitMap);
-        writeFiles(writeMap);
-        removeFiles(removeMap);
-        overWrite(overwriteMap);
-        String message = "Merged " + targetBranch + " into " + curBranch + ".";
-        List<String> parents = new ArrayList<>();
-        parents.add(lastCommit.getCommitID());
-        parents.add(targetBranchCommitId);
-        List<String> allFiles = allFilesList(splitPoint, lastCommit, targetCommit);
-        Map<String, String> conflictMap =
-            calculateConflict(allFiles, splitPointMap, curCommitMap, targetCommitMap); // 处理冲突的情况
-        Map<String, String> commitMap = new HashMap<>();
-        for (String path : curCommitMap.keySet())
-        {
-            String blobId = curCommitMap.get(path);
-            commitMap.put(path, blobId);
-        }
-        for (String path : overwriteMap.keySet())
+            // 将当前分支的指针移向指定commit，清空并保存缓冲区
+            String assignedCommitId = assignedCommit.getCommitID();
+            File curBranchFile = join(headsDir, readObject(headFile, String.class));
+            writeObject(curBranchFile, assignedCommitId);
+            StagingArea.load().clear();
+        });
+    }
+
+    public void reindex()
+    {
+        writing(() ->
         {
-            String blobId = overwriteMap.get(path);
-            commitMap.put(path, blobId);
-        }
-        for (String path : writeMap.keySet())
+            // 扫描所有commit重建说明索引，旧仓库升级后运行一次即可
+            MessageIndex.rebuild();
+            TrigramIndex.rebuild();
+            // 把不在提交图中的旧commit补进去，短id的查找和最短前缀才覆盖所有commit
+            List<String> commitIds = new ArrayList<>();
+            for (String id : scanCommitIds())
+            {
+                try
+                {
+                    ObjectStore.readObject(id, Commit.class);
+                    commitIds.add(id);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    continue;
+                }
+            }
+            CommitGraph.covering(commitIds.toArray(new String[0]));
+        });
+    }
+
+    public void migrateBlobs()
+    {
+        writing(() ->
         {
-            String blobId = writeMap.get(path);
-            commitMap.put(path, blobId);
-        }
-        for (String path : conflictMap.keySet())
+            // 旧仓库的blob id包含路径，迁移成只按内容寻址，相同的文件只存一份，并输出节省的空间
+            BlobMigration.migrate();
+        });
+    }
+
+    public void repack()
+    {
+        writing(() ->
         {
-            String blobId = conflictMap.get(path);
-            commitMap.put(path, blobId);
-        }
-        for (String path : removeMap.keySet())
+            // 把松散对象和已有的pack合并成一个pack，读取的结果不变
+            ObjectStore.repack();
+        });
+    }
+
+    public void merge(String targetBranch)
+    {
+        writing(() ->
         {
-            commitMap.remove(path);
-        }
-        Commit mergeCommit = new Commit(message, commitMap, parents);
-        mergeCommit.saveCommit();
-        addStage.clear();
-        removeStage.clear();
-        addStage.saveStage(ADD_STAGE_DIR);
-        removeStage.saveStage(REMOVE_STAGE_DIR);
-        alterHEADS(mergeCommit);
+            Commit lastCommit = lastCommit();
+            String curCommitId = lastCommit.getCommitID();
+            StagingArea staging = StagingArea.load();
+            File targetBranchFile = join(headsDir, targetBranch); // 目标分支文件，存储目标分支最后一个commit的id
+            String curBranch = readObject(headFile, String.class); // 当前分支名
+            if (!staging.additions().isEmpty() || !staging.removals().isEmpty())
+            {
+                throw error("You have uncommitted changes.");
+            }
+            if (!targetBranchFile.exists())
+            {
+                throw error("A branch with that name does not exist.");
+            }
+            if (curBranch.equals(targetBranch))
+            {
+                throw error("Cannot merge a branch with itself.");
+            }
+            String targetBranchCommitId = readObject(targetBranchFile, String.class);
+            Commit targetCommit = ObjectStore.readObject(targetBranchCommitId, Commit.class);
+            String splitPointId = findSplitPoint(targetCommit);
+            Commit splitPoint = ObjectStore.readObject(splitPointId, Commit.class);
+            if (splitPointId.equals(targetBranchCommitId))
+            {
+                throw error("Given branch is an ancestor of the current branch.");
+            }
+            if (splitPointId.equals(curCommitId))
+            {
+                message("Current branch fast-forwarded.");
+                checkoutBranch(targetBranch);
+                return;
+            }
+            // 按哈希比较三个commit的tree：目标分支中和分割点或当前分支相同的子树合并后不变，
+            // 整个跳过；下面的三个map只包含其余需要逐个比较的文件
+            Map<String, String> splitPointMap = new HashMap<>();
+            Map<String, String> curCommitMap = new HashMap<>();
+            Map<String, String> targetCommitMap = new HashMap<>();
+            Tree.mergeCandidates(splitPoint.getTreeId(), lastCommit.getTreeId(), targetCommit.getTreeId(),
+                                 splitPointMap, curCommitMap, targetCommitMap);
+            Map<String, String> overwriteMap = overWriteFiles(splitPointMap, curCommitMap, targetCommitMap);
+            Map<String, String> writeMap = writeMap(splitPointMap, curCommitMap, targetCommitMap);
+            Map<String, String> removeMap = removeMap(splitPointMap, curCommitMap, targetCommitMap);
+            checkMerge(writeMap, removeMap, curCommitMap);
+            writeFiles(writeMap);
+            removeFiles(removeMap);
+            overWrite(overwriteMap);
+            String message = "Merged " + targetBranch + " into " + curBranch + ".";
+            List<String> parents = new ArrayList<>();
+            parents.add(lastCommit.getCommitID());
+            parents.add(targetBranchCommitId);
+            List<String> allFiles = allFilesList(splitPointMap, curCommitMap, targetCommitMap);
+            Map<String, String> conflictMap =
+                calculateConflict(allFiles, splitPointMap, curCommitMap, targetCommitMap); // 处理冲突的情况
+            // 在当前分支的根tree上只改动合并中变化的文件
+            Map<String, String> commitMap = new HashMap<>();
+            for (String path : overwriteMap.keySet())
+            {
+                String blobId = overwriteMap.get(path);
+                commitMap.put(path, blobId);
+            }
+            for (String path : writeMap.keySet())
+            {
+                String blobId = writeMap.get(path);
+                commitMap.put(path, blobId);
+            }
+            for (String path : conflictMap.keySet())
+            {
+                String blobId = conflictMap.get(path);
+                commitMap.put(path, blobId);
+            }
+            for (String path : removeMap.keySet())
+            {
+                commitMap.put(path, null);
+            }
+            Commit mergeCommit = new Commit(message, Tree.update(lastCommit.getTreeId(), commitMap), parents);
+            mergeCommit.saveCommit();
+            CommitGraph.add(mergeCommit);
+            MessageIndex.add(mergeCommit);
+            TrigramIndex.add(mergeCommit);
+            staging.clear();
+            alterHEADS(mergeCommit);
+        });
     }
 
-    private static void checkMerge(Map<String, String> writeMap, Map<String, String> removeMap,
+    private void checkMerge(Map<String, String> writeMap, Map<String, String> removeMap,
                                    Map<String, String> curCommitMap)
     {
         // 所有当前目录下的文件，不被当前commit追踪
-        // 但是要被writeMap重写或者removeMap删除的文件，报错
+        // 但是要被writeMap重写成不同的内容或者被removeMap删除的文件，报错
+        // 内容和要写入的blob相同时合并不会丢失什么，和checkout一样放行
         // 这里的文件名是相对路径，改为绝对路径
-        List<String> cwdFiles = plainFilenamesIn(CWD);
+        List<String> cwdFiles = plainFilenamesIn(root);
         List<String> absoluteCwdFiles = new ArrayList<>();
         for (String cwdFile : cwdFiles)
         {
-            String absolutePath = CWD.toPath().resolve(cwdFile).toString();
+            String absolutePath = root.toPath().resolve(cwdFile).toString();
             absoluteCwdFiles.add(absolutePath);
         }
+        StatCache statCache = StatCache.load();
         for (String cwdFile : absoluteCwdFiles)
         {
             if (!curCommitMap.containsKey(cwdFile))
             {
-                if (writeMap.containsKey(cwdFile) || removeMap.containsKey(cwdFile))
+                String blobId = writeMap.get(cwdFile);
+                if ((blobId != null && !statCache.matches(new File(cwdFile), blobId))
+                    || removeMap.containsKey(cwdFile))
                 {
-                    message("There is an untracked file in the way; "
+                    throw error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
-                    System.exit(0);
                 }
             }
         }
+        statCache.save();
     }
 
-    private static Map<String, String> calculateConflict(List<String> allFiles, Map<String, String> splitPointMap,
+    private Map<String, String> calculateConflict(List<String> allFiles, Map<String, String> splitPointMap,
                                                          Map<String, String> curCommitMap,
                                                          Map<String, String> targetCommitMap)
     {
@@ -881,8 +1226,8 @@ public class Repository
         boolean conflict = false;
         for (String path : allFiles)
         {
-            String curBranchContent = "";
-            String assignedBranchContent = "";
+            String curBranchBlobId = null;   // null表示该分支中没有这个文件，冲突文件中对应部分为空
+            String assignedBranchBlobId = null;
             int fileBits = 0;
             if (splitPointMap.containsKey(path))
             {
@@ -902,8 +1247,8 @@ public class Repository
                 if (!splitPointMap.get(path).equals(curCommitMap.get(path)))
                 {
                     conflict = true;
-                    curBranchContent = blobContent(curCommitMap.get(path));
-                    writeConflictFile(path, curBranchContent, assignedBranchContent);
+                    curBranchBlobId = curCommitMap.get(path);
+                    writeConflictFile(path, curBranchBlobId, assignedBranchBlobId);
                     conflictMap.put(path, conflictBlob(path));
                 }
                 break;
@@ -911,8 +1256,8 @@ public class Repository
                 if (!splitPointMap.get(path).equals(targetCommitMap.get(path)))
                 {
                     conflict = true;
-                    assignedBranchContent = blobContent(targetCommitMap.get(path));
-                    writeConflictFile(path, curBranchContent, assignedBranchContent);
+                    assignedBranchBlobId = targetCommitMap.get(path);
+                    writeConflictFile(path, curBranchBlobId, assignedBranchBlobId);
                     conflictMap.put(path, conflictBlob(path));
                 }
                 break;
@@ -920,9 +1265,9 @@ public class Repository
                 if (!curCommitMap.get(path).equals(targetCommitMap.get(path)))
                 {
                     conflict = true;
-                    curBranchContent = blobContent(curCommitMap.get(path));
-                    assignedBranchContent = blobContent(targetCommitMap.get(path));
-                    writeConflictFile(path, curBranchContent, assignedBranchContent);
+                    curBranchBlobId = curCommitMap.get(path);
+                    assignedBranchBlobId = targetCommitMap.get(path);
+                    writeConflictFile(path, curBranchBlobId, assignedBranchBlobId);
                     conflictMap.put(path, conflictBlob(path));
                 }
                 break;
@@ -933,9 +1278,9 @@ public class Repository
                     if (!curCommitMap.get(path).equals(targetCommitMap.get(path)))
                     {
                         conflict = true;
-                        curBranchContent = blobContent(curCommitMap.get(path));
-                        assignedBranchContent = blobContent(targetCommitMap.get(path));
-                        writeConflictFile(path, curBranchContent, assignedBranchContent);
+                        curBranchBlobId = curCommitMap.get(path);
+                        assignedBranchBlobId = targetCommitMap.get(path);
+                        writeConflictFile(path, curBranchBlobId, assignedBranchBlobId);
                         conflictMap.put(path, conflictBlob(path));
                     }
                 }
@@ -951,31 +1296,40 @@ public class Repository
         return conflictMap;
     }
 
-    private static String conflictBlob(String path)
+    private String conflictBlob(String path)
     {
         // 冲突文件已经写好了，现在创建对应的blob文件
         // 返回blobId
         Blob conflictBlob = new Blob(new File(path));
-        writeObject(join(OBJECTS_DIR, conflictBlob.getBlobId()), conflictBlob);
+        conflictBlob.saveBlob();
         return conflictBlob.getBlobId();
     }
 
-    private static String blobContent(String blobId)
+    private InputStream blobContent(String blobId)
     {
-        File blobFile = join(OBJECTS_DIR, blobId);
-        Blob blob = readObject(blobFile, Blob.class);
-        return new String(blob.getContent());
+        // 返回blob内容的流，blobId为null时返回空流
+        if (blobId == null)
+        {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        Blob blob = ObjectStore.readObject(blobId, Blob.class);
+        return blob.openStream();
     }
 
-    private static void writeConflictFile(String path, String curBranchContent, String assignedBranchContent)
+    private void writeConflictFile(String path, String curBranchBlobId, String assignedBranchBlobId)
     {
+        // 两个分支的内容直接从对象库流式写入冲突文件，不拼接成字符串
         File conflictFile = new File(path);
-        String conflictContent =
-            "<<<<<<< HEAD\n" + curBranchContent + "=======\n" + assignedBranchContent + ">>>>>>>\n";
+        InputStream conflictContent = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+            new ByteArrayInputStream("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8)),
+            blobContent(curBranchBlobId),
+            new ByteArrayInputStream("=======\n".getBytes(StandardCharsets.UTF_8)),
+            blobContent(assignedBranchBlobId),
+            new ByteArrayInputStream(">>>>>>>\n".getBytes(StandardCharsets.UTF_8)))));
         writeContents(conflictFile, conflictContent);
     }
 
-    private static void removeFiles(Map<String, String> removeMap)
+    private void removeFiles(Map<String, String> removeMap)
     {
         for (String path : removeMap.keySet())
         {
@@ -983,32 +1337,21 @@ public class Repository
         }
     }
 
-    private static void writeFiles(Map<String, String> writeMap)
+    private void writeFiles(Map<String, String> writeMap)
     {
         // 只在给定分支中存在，在分割点和当前分支都不存在,在工作目录直接写
-        for (String path : writeMap.keySet())
-        {
-            String blobId = writeMap.get(path);
-            File blobFile = join(OBJECTS_DIR, blobId);
-            Blob blob = readObject(blobFile, Blob.class);
-            writeContents(new File(path), (Object)blob.getContent());
-        }
+        // 大文件逐块写出，不会把整个文件读进内存；多个文件由Materializer并行写
+        Materializer.write(writeMap);
     }
 
-    private static void overWrite(Map<String, String> overwriteMap)
+    private void overWrite(Map<String, String> overwriteMap)
     {
         // 对于三个commit中都存在并且分割点和当前分支内容相同
         //  但是和目标分支内容不同的文件，直接覆盖
-        for (String path : overwriteMap.keySet())
-        {
-            String blobId = overwriteMap.get(path);
-            File blobFile = join(OBJECTS_DIR, blobId);
-            Blob blob = readObject(blobFile, Blob.class);
-            writeContents(new File(path), (Object)blob.getContent());
-        }
+        Materializer.write(overwriteMap);
     }
 
-    private static Map<String, String> removeMap(Map<String, String> splitPointMap, Map<String, String> curCommitMap,
+    private Map<String, String> removeMap(Map<String, String> splitPointMap, Map<String, String> curCommitMap,
                                                  Map<String, String> targetCommitMap)
     {
         // 只在分割点和当前分支存在，在目标分支中不存在
@@ -1030,7 +1373,7 @@ public class Repository
         return removeMap;
     }
 
-    private static Map<String, String> writeMap(Map<String, String> splitPointMap, Map<String, String> curCommitMap,
+    private Map<String, String> writeMap(Map<String, String> splitPointMap, Map<String, String> curCommitMap,
                                                 Map<String, String> targetCommitMap)
     {
         Map<String, String> writeMap = new HashMap<>();
@@ -1045,7 +1388,7 @@ public class Repository
         return writeMap;
     }
 
-    private static Map<String, String> overWriteFiles(Map<String, String> splitPointMap,
+    private Map<String, String> overWriteFiles(Map<String, String> splitPointMap,
                                                       Map<String, String> curCommitMap,
                                                       Map<String, String> targetCommitMap)
     {
@@ -1068,39 +1411,27 @@ public class Repository
         return overwriteMap;
     }
 
-    private static List<String> allFilesList(Commit splitPoint, Commit curCommit, Commit targetCommit)
+    private List<String> allFilesList(Map<String, String> splitPointMap, Map<String, String> curCommitMap,
+                                             Map<String, String> targetCommitMap)
     {
         List<String> allFiles = new ArrayList<>();
-        allFiles.addAll(splitPoint.getPathToBlobID().keySet());
-        allFiles.addAll(curCommit.getPathToBlobID().keySet());
-        allFiles.addAll(targetCommit.getPathToBlobID().keySet());
+        allFiles.addAll(splitPointMap.keySet());
+        allFiles.addAll(curCommitMap.keySet());
+        allFiles.addAll(targetCommitMap.keySet());
         Set<String> allFilesSet = new HashSet<>(allFiles);
         allFiles.clear();
         allFiles.addAll(allFilesSet);
         return allFiles;
     }
 
-    public static String findSplitPoint(Commit targetCommit) {
+    private String findSplitPoint(Commit targetCommit) {
         //找到两个分支的最近公共祖先
-        //首先将当前分支倒序遍历加入哈希表
-        //在这里遍历两个分支时为了方便，使用了全局变量lastCommit(全局变量lastCommit本来是指向当前分支的最新commit)
-        //使用后切换回去
-        Set<String> curBranchCommits = new HashSet<>();
-        for (lastCommit = readLastCommit();
-             hasParentCommit(lastCommit); moveLastToPreviousCommit()) {
-            curBranchCommits.add(lastCommit.getCommitID());
-        }
-        curBranchCommits.add(lastCommit.getCommitID());
-        //然后将目标分支倒序遍历，如果遇到哈希表中的commit，返回该commit
-        //这里更改了lastCommit
-        for (lastCommit = targetCommit; hasParentCommit(lastCommit); moveLastToPreviousCommit()) {
-            String curCommitId = lastCommit.getCommitID();
-            if (curBranchCommits.contains(curCommitId)) {
-                return curCommitId;
-            }
-        }
-        String initialCommitId = lastCommit.getCommitID();
-        lastCommit = readLastCommit();  //将lastCommit调整回指向当前分支的最新commit
-        return initialCommitId;
+        //在提交图上沿所有parent按代数从大到小遍历(见MergeBase)，merge commit的第二个parent也会走到，
+        //找到第一个两边都能到达的commit就停止，不读commit对象
+        String curCommitId = lastCommitId();
+        CommitGraph graph = CommitGraph.covering(curCommitId, targetCommit.getCommitID());
+        int splitPoint = MergeBase.find(graph, graph.indexOf(curCommitId),
+                                        graph.indexOf(targetCommit.getCommitID()));
+        return graph.idAt(splitPoint);
     }
 }
@@ -7,6 +7,9 @@ import java.util.Map;
 
 //Stage
 public class Stage implements Serializable {
+    /** 固定为添加方法之前的值，保证已有的暂存区文件仍能反序列化。 */
+    private static final long serialVersionUID = -7367772719546633730L;
+
     private HashMap<String, String> pathToBlobId;
 
     public Stage() {
@@ -26,6 +29,11 @@ public class Stage implements Serializable {
         pathToBlobId.put(blob.getPath(), blob.getBlobId());
     }
 
+    /** 记录PATH对应BLOBID；对象库中的blob不记录路径，所以由调用方给出。 */
+    public void addBlob(String path, String blobId) {
+        pathToBlobId.put(path, blobId);
+    }
+
     public void deleteBlobByPath(String path) {
         pathToBlobId.remove(path);
     }
@@ -0,0 +1,304 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.join;
+
+/** 暂存区：addStage和removeStage两个Stage文件，加上之后追加的暂存记录stage-log。
+ *
+ *  add和rm不再重写整个Stage文件，只在stage-log末尾追加一条记录，读暂存区时在
+ *  两个Stage文件上依次重放。commit、checkout、reset和merge清空暂存区时才压缩：
+ *  写回Stage文件并清空stage-log。旧仓库没有stage-log，读出的就是原来的Stage文件。
+ *
+ *  记录：       类型(1字节) | 路径(UTF) | 20字节blob id(只有STAGE和REMOVE有)
+ *  CHECKPOINT：  类型(1字节) | 两个Stage各自的 项数 | (路径(UTF) | 20字节blob id)...
+ *  写到一半的最后一条记录(写的进程中途退出)读的时候忽略，下一次追加时截掉。
+ *
+ *  压缩分三步：先追加一条记有压缩后整个暂存区的CHECKPOINT并刷到磁盘，再用临时文件
+ *  改名替换两个Stage文件，最后清空stage-log。重放到CHECKPOINT时整个暂存区换成它记的
+ *  内容，所以在哪一步中断，读出的都是压缩后的暂存区，不会把旧记录重放到新的Stage文件上。
+ *
+ *  读、追加和压缩都在stage-log上加文件锁，锁只在读(或写这一条记录、压缩)期间持有，
+ *  所以不同进程中同时运行的add可以安全地追加。加锁后先重放load之后别的进程追加的
+ *  记录，所以压缩不会丢掉别的进程刚暂存的文件；stage-log比已经重放的部分还短时，
+ *  说明别的进程已经压缩过，重新读出Stage文件，从头重放。
+ *
+ *  @author Zhurish
+ */
+class StagingArea {
+    /** 记录类型：暂存PATH的新内容、取消暂存、暂存删除、取消暂存删除。 */
+    private static final byte STAGE = 1;
+    private static final byte UNSTAGE = 2;
+    private static final byte REMOVE = 3;
+    private static final byte UNREMOVE = 4;
+    /** 压缩时写的记录：之前的Stage文件和记录都作废，暂存区就是这条记录中的内容。 */
+    private static final byte CHECKPOINT = 5;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /** 文件锁属于整个进程，同一进程中的线程(daemon中并发的命令)先在这里排队。 */
+    private static final Object LOG_LOCK = new Object();
+
+    private final Stage additions;
+    private final Stage removals;
+    /** 已经反映在两个Stage中的stage-log字节数，之后的记录是别的进程追加的。 */
+    private long replayed;
+
+    private StagingArea(Stage additions, Stage removals, long replayed) {
+        this.additions = additions;
+        this.removals = removals;
+        this.replayed = replayed;
+    }
+
+    /** 当前仓库(见Repository.current)的暂存记录文件。 */
+    static File logFile() {
+        return join(Repository.current().gitletDir(), "stage-log");
+    }
+
+    /** 读出Stage文件并重放stage-log中的记录。 */
+    static StagingArea load() {
+        StagingArea staging = new StagingArea(new Stage(), new Stage(), 0);
+        locked(staging::reload);
+        return staging;
+    }
+
+    /** 重新读出Stage文件，从头重放CHANNEL中的记录，调用时持有文件锁。 */
+    private void reload(FileChannel channel) throws IOException {
+        Repository repository = Repository.current();
+        readStage(repository.addStageFile(), additions);
+        readStage(repository.removeStageFile(), removals);
+        replayed = 0;
+        catchUp(channel);
+    }
+
+    /** 把FILE中保存的Stage读到STAGE中，FILE不存在时STAGE为空。 */
+    private static void readStage(File file, Stage stage) {
+        stage.clear();
+        if (file.exists()) {
+            stage.getBlobMap().putAll(Utils.readObject(file, Stage.class).getBlobMap());
+        }
+    }
+
+    /** 在两个Stage上依次执行LOG中的记录，返回完整的记录占的字节数。 */
+    private int replay(byte[] log) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(log));
+        byte[] id = new byte[ID_BYTES];
+        int complete = 0;
+        try {
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == CHECKPOINT) {
+                    // 先读完整条记录，写到一半时不改动暂存区
+                    Map<String, String> staged = readEntries(in);
+                    Map<String, String> removed = readEntries(in);
+                    additions.clear();
+                    additions.getBlobMap().putAll(staged);
+                    removals.clear();
+                    removals.getBlobMap().putAll(removed);
+                    complete = log.length - in.available();
+                    continue;
+                }
+                String path = in.readUTF();
+                if (kind == STAGE || kind == REMOVE) {
+                    in.readFully(id);
+                }
+                switch (kind) {
+                    case STAGE:
+                        additions.addBlob(path, Utils.bytesToUid(id));
+                        break;
+                    case UNSTAGE:
+                        additions.deleteBlobByPath(path);
+                        break;
+                    case REMOVE:
+                        removals.addBlob(path, Utils.bytesToUid(id));
+                        break;
+                    case UNREMOVE:
+                        removals.deleteBlobByPath(path);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("corrupted stage-log");
+                }
+                complete = log.length - in.available();
+            }
+        } catch (EOFException excp) {
+            return complete;  // 之后是写到一半的记录，或者已经读完
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static Map<String, String> readEntries(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, String> entries = new HashMap<>();
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            String path = in.readUTF();
+            in.readFully(id);
+            entries.put(path, Utils.bytesToUid(id));
+        }
+        return entries;
+    }
+
+    private static void writeEntries(DataOutputStream out, Stage stage) throws IOException {
+        out.writeInt(stage.getBlobMap().size());
+        for (Map.Entry<String, String> entry : stage.getBlobMap().entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.write(Utils.uidToBytes(entry.getValue()));
+        }
+    }
+
+    /** 重放REPLAYED之后别的进程追加到CHANNEL的记录，调用时持有文件锁。
+     *  CHANNEL比REPLAYED还短时别的进程已经压缩过，重新读出Stage文件。 */
+    private void catchUp(FileChannel channel) throws IOException {
+        if (channel.size() < replayed) {
+            reload(channel);
+            return;
+        }
+        ByteBuffer appended = ByteBuffer.allocate((int) Math.max(0, channel.size() - replayed));
+        while (appended.hasRemaining()
+                && channel.read(appended, replayed + appended.position()) > 0) {
+            continue;
+        }
+        replayed += replay(appended.array());
+    }
+
+    /** 暂存给add的文件，路径到blob id。 */
+    Stage additions() {
+        return additions;
+    }
+
+    /** 暂存给rm的文件，路径到上次commit中的blob id。 */
+    Stage removals() {
+        return removals;
+    }
+
+    /** 暂存PATH的内容BLOBID。 */
+    void stage(String path, String blobId) {
+        append(STAGE, path, blobId);
+        additions.addBlob(path, blobId);
+    }
+
+    /** 取消暂存PATH。 */
+    void unstage(String path) {
+        append(UNSTAGE, path, null);
+        additions.deleteBlobByPath(path);
+    }
+
+    /** 暂存PATH的删除，BLOBID是上次commit中的内容。 */
+    void stageRemoval(String path, String blobId) {
+        append(REMOVE, path, blobId);
+        removals.addBlob(path, blobId);
+    }
+
+    /** 取消暂存PATH的删除。 */
+    void unstageRemoval(String path) {
+        append(UNREMOVE, path, null);
+        removals.deleteBlobByPath(path);
+    }
+
+    /** 清空暂存区，commit、checkout、reset和merge之后调用。 */
+    void clear() {
+        additions.clear();
+        removals.clear();
+        compact();
+    }
+
+    /** 把暂存区写回Stage文件并清空stage-log：先写CHECKPOINT，见类的说明。 */
+    void compact() {
+        Repository repository = Repository.current();
+        locked(channel -> {
+            if (channel.size() < replayed) {
+                // 别的进程压缩过，stage-log中都是之后的记录；要写回的是内存中
+                // 清空或改写过的暂存区，所以不重新读出Stage文件，只重放这些记录
+                replayed = 0;
+            }
+            catchUp(channel);
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(record)) {
+                out.writeByte(CHECKPOINT);
+                writeEntries(out, additions);
+                writeEntries(out, removals);
+            }
+            write(channel, record.toByteArray());
+            channel.force(false);
+            saveStage(additions, repository.addStageFile());
+            saveStage(removals, repository.removeStageFile());
+            channel.truncate(0);
+            replayed = 0;
+        });
+    }
+
+    /** 把STAGE写到FILE：先写临时文件并刷到磁盘，再改名替换，FILE要么是旧的要么是新的。 */
+    private static void saveStage(Stage stage, File file) throws IOException {
+        File tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp").toFile();
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(Utils.serialize(stage));
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();   // 改名之后已经不存在
+        }
+    }
+
+    /** 在stage-log末尾追加一条KIND类型的记录，BLOBID为null时不写id。
+     *  追加之前先跟上别的进程的改动，调用方之后再在内存中的Stage上执行这条记录。 */
+    private void append(byte kind, String path, String blobId) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(record)) {
+            out.writeByte(kind);
+            out.writeUTF(path);
+            if (blobId != null) {
+                out.write(Utils.uidToBytes(blobId));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        locked(channel -> {
+            catchUp(channel);
+            write(channel, record.toByteArray());
+        });
+    }
+
+    /** 截掉没有写完的记录，在REPLAYED处写入RECORD，调用时持有文件锁。 */
+    private void write(FileChannel channel, byte[] record) throws IOException {
+        if (channel.size() > replayed) {
+            channel.truncate(replayed);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(record);
+        while (bytes.hasRemaining()) {
+            replayed += channel.write(bytes, replayed);
+        }
+    }
+
+    /** 对stage-log执行的操作，调用时持有文件锁。 */
+    private interface LogAction {
+        void run(FileChannel channel) throws IOException;
+    }
+
+    /** 打开stage-log，加上文件锁后执行ACTION；关闭channel时释放文件锁。 */
+    private static void locked(LogAction action) {
+        synchronized (LOG_LOCK) {
+            try (FileChannel channel = FileChannel.open(logFile().toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                channel.lock();
+                action.run(channel);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
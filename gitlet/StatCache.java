@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.join;
+
+/** 工作区文件的stat缓存：每个路径记录文件的大小、修改时间、file key(inode)和算出的blob id。
+ *  status、add和检查未追踪文件时，stat数据没有变化的文件直接用记录的id，
+ *  只有元数据变了的文件才重新读内容计算哈希。
+ *
+ *  文件：   "GSTC" | 版本 | blob是否按内容寻址 | 条目数 | 条目...
+ *  条目：   路径 | 大小 | 修改时间(纳秒) | file key | 计算哈希的时间(纳秒) | 20字节blob id
+ *  旧仓库的blob id包含路径，迁移后id会变，所以寻址方式和记录时不同就丢弃整个缓存。
+ *
+ *  修改时间的精度有限(有的文件系统只到秒甚至两秒)，计算哈希之后同一个时间片内的修改
+ *  不会改变修改时间。所以只有修改时间比计算哈希的时间早RACY_NANOS以上的记录才可信，
+ *  刚改过的文件每次都重新计算，直到它"变旧"。缓存坏了或读不出来时当作空的，不影响结果。
+ *
+ *  可以从多个线程同时调用idOf。
+ *
+ *  @author Zhurish
+ */
+class StatCache {
+    private static final int MAGIC = 0x47535443;    // "GSTC"
+    private static final int VERSION = 1;
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** 读出这个缓存的文件，save写回同一个文件。 */
+    private final File file;
+    private final Map<String, Entry> entries;
+    private volatile boolean dirty;
+
+    private StatCache(File file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /** 一个路径的stat数据和blob id。 */
+    private static class Entry {
+        final long size;
+        final long modified;
+        final String fileKey;
+        final long hashedAt;
+        final String id;
+
+        Entry(long size, long modified, String fileKey, long hashedAt, String id) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hashedAt = hashedAt;
+            this.id = id;
+        }
+
+        /** stat数据和STAT相同，并且记录时文件已经不会在同一个时间片内再被改动。 */
+        boolean matches(Entry stat) {
+            return size == stat.size && modified == stat.modified
+                    && fileKey.equals(stat.fileKey) && modified + RACY_NANOS < hashedAt;
+        }
+    }
+
+    /** 当前仓库(见Repository.current)的缓存文件。 */
+    static File cacheFile() {
+        return join(Repository.current().gitletDir(), "stat-cache");
+    }
+
+    /** 读出缓存；文件不存在、损坏或寻址方式已经变了时返回空的缓存。 */
+    static StatCache load() {
+        File file = cacheFile();
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION
+                        && in.readBoolean() == Blob.contentAddressed()) {
+                    int count = in.readInt();
+                    byte[] id = new byte[ID_BYTES];
+                    for (int i = 0; i < count; i += 1) {
+                        String path = in.readUTF();
+                        long size = in.readLong();
+                        long modified = in.readLong();
+                        String fileKey = in.readUTF();
+                        long hashedAt = in.readLong();
+                        in.readFully(id);
+                        entries.put(path, new Entry(size, modified, fileKey, hashedAt,
+                                Utils.bytesToUid(id)));
+                    }
+                }
+            } catch (IOException excp) {
+                entries.clear();
+            }
+        }
+        return new StatCache(file, entries);
+    }
+
+    /** 返回文件FILE当前内容的blob id，和Blob.idOf相同。stat数据没变时直接用记录的id，
+     *  否则读内容计算并更新记录。 */
+    String idOf(File file) {
+        String path = file.getPath();
+        Entry stat = stat(file);
+        Entry cached = entries.get(path);
+        if (cached != null && cached.matches(stat)) {
+            return cached.id;
+        }
+        long hashedAt = now();
+        String id = Blob.idOf(file);
+        entries.put(path, new Entry(stat.size, stat.modified, stat.fileKey, hashedAt, id));
+        dirty = true;
+        return id;
+    }
+
+    /** 文件FILE的内容是blob BLOBID时返回true。从不读出blob的内容：先比较对象头部记录的大小，
+     *  不同就一定不同；大小相同或不知道大小时，比较文件的id(stat数据没变时直接用记录的id)。
+     *  FILE不存在时返回false。 */
+    boolean matches(File file, String blobId) {
+        if (!file.isFile()) {
+            return false;
+        }
+        long size = ObjectStore.blobSize(blobId);
+        if (size >= 0 && size != file.length()) {
+            return false;
+        }
+        return blobId.equals(idOf(file));
+    }
+
+    /** 只保留PATHS中的记录，删除文件或不再追踪的路径不必一直留在缓存里。 */
+    void retainAll(Collection<String> paths) {
+        if (entries.keySet().retainAll(paths)) {
+            dirty = true;
+        }
+    }
+
+    /** 有改动时写回缓存文件(先写临时文件再改名)。写不出来只是下次多算一些哈希。
+     *  同时运行的只读命令也会写回，所以每次用不同名字的临时文件，后改名的覆盖先改名的。 */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        File tmp = null;
+        try {
+            tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp").toFile();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeBoolean(Blob.contentAddressed());
+                Map<String, Entry> snapshot = new HashMap<>(entries);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                    Entry value = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(value.size);
+                    out.writeLong(value.modified);
+                    out.writeUTF(value.fileKey);
+                    out.writeLong(value.hashedAt);
+                    out.write(Utils.uidToBytes(value.id));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** 读取FILE的stat数据，返回的Entry没有id。 */
+    private static Entry stat(File file) {
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Object fileKey = attributes.fileKey();
+            return new Entry(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    fileKey == null ? "" : fileKey.toString(), 0, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** 和文件修改时间同一个时钟的当前时间(纳秒)。 */
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+}
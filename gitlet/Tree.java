@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/** 一个目录的tree对象：目录下每一项的名字、种类(文件或子目录)和id，按名字排序。
+ *  文件的id是blob的id，子目录的id是它的tree的id。tree的id由各项算出，
+ *  所以内容相同的目录id相同，比较两个id就能知道整个子树是否相同。
+ *
+ *  commit只记录根tree的id。路径按分隔符拆开，根tree的各项是路径的第一段，依此类推
+ *  (commit中的路径都是绝对路径，根tree下是""，对应开头的"/")。
+ *  修改一个文件只需重写从根到它所在目录这一条链上的tree，其余子树原样引用。
+ *
+ *  @author Zhurish
+ */
+public class Tree implements Serializable {
+    /** tree由ObjectCodec编码，不经过Java序列化；固定下来免得改动类时值跟着变。 */
+    private static final long serialVersionUID = -1448482944159707278L;
+
+    static final byte FILE = 0;
+    static final byte DIRECTORY = 1;
+    /** 计算id时加在内容前面，和blob、chunk区分开。 */
+    private static final String ID_PREFIX = "tree";
+    private static final Pattern SEPARATOR = Pattern.compile(Pattern.quote(File.separator));
+
+    private final TreeMap<String, Entry> entries;
+
+    Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** 目录中的一项。 */
+    static class Entry {
+        final byte kind;
+        final String id;
+
+        Entry(byte kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+    }
+
+    /** 按名字排序的各项，不要修改。 */
+    TreeMap<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /** 返回由各项算出的id。 */
+    String id() {
+        List<Object> parts = new ArrayList<>();
+        parts.add(ID_PREFIX);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            parts.add(entry.getKey());
+            parts.add(new byte[]{0, entry.getValue().kind});
+            parts.add(Utils.uidToBytes(entry.getValue().id));
+        }
+        return Utils.sha1(parts);
+    }
+
+    /** 返回PATHTOBLOBID(路径到blob id)对应的根tree的id，各级tree都存入对象库。 */
+    static String build(Map<String, String> pathToBlobID) {
+        return update(null, pathToBlobID);
+    }
+
+    /** 在根tree ROOTID(为null表示空)上应用CHANGES(路径到新的blob id，null表示删除)，
+     *  返回新的根tree的id。只读写CHANGES中的路径经过的tree。 */
+    static String update(String rootId, Map<String, String> changes) {
+        List<String[]> paths = new ArrayList<>(changes.size());
+        for (String path : changes.keySet()) {
+            paths.add(SEPARATOR.split(path, -1));
+        }
+        String newRoot = update(rootId, paths, new ArrayList<>(changes.values()), 0);
+        return newRoot != null ? newRoot : save(new TreeMap<>());
+    }
+
+    /** 在tree TREEID上应用PATHS[i]改为BLOBIDS[i]的修改，PATHS的前DEPTH段就是这个tree的路径。
+     *  返回新tree的id，tree变空时返回null。 */
+    private static String update(String treeId, List<String[]> paths, List<String> blobIds,
+                                 int depth) {
+        Map<String, Entry> old = entriesOf(treeId);
+        TreeMap<String, Entry> entries = new TreeMap<>(old);
+        Map<String, List<Integer>> byChild = new TreeMap<>();
+        for (int i = 0; i < paths.size(); i += 1) {
+            String name = paths.get(i)[depth];
+            if (paths.get(i).length == depth + 1) {
+                if (blobIds.get(i) == null) {
+                    entries.remove(name);
+                } else {
+                    entries.put(name, new Entry(FILE, blobIds.get(i)));
+                }
+            } else {
+                byChild.computeIfAbsent(name, k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map.Entry<String, List<Integer>> child : byChild.entrySet()) {
+            List<String[]> childPaths = new ArrayList<>();
+            List<String> childBlobIds = new ArrayList<>();
+            for (int i : child.getValue()) {
+                childPaths.add(paths.get(i));
+                childBlobIds.add(blobIds.get(i));
+            }
+            // 子目录取修改前的id：同一次修改中可能已经在这个名字上放了文件(文件替换目录)
+            String childId = update(directoryId(old.get(child.getKey())),
+                    childPaths, childBlobIds, depth + 1);
+            if (childId == null) {
+                if (directoryId(entries.get(child.getKey())) != null) {
+                    entries.remove(child.getKey());
+                }
+            } else {
+                entries.put(child.getKey(), new Entry(DIRECTORY, childId));
+            }
+        }
+        return entries.isEmpty() && depth > 0 ? null : save(entries);
+    }
+
+    /** 返回根tree ROOTID中所有文件的路径到blob id。 */
+    static Map<String, String> flatten(String rootId) {
+        Map<String, String> files = new HashMap<>();
+        flatten(rootId, null, files);
+        return files;
+    }
+
+    private static void flatten(String treeId, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, Entry> entry : read(treeId).entries.entrySet()) {
+            String path = child(prefix, entry.getKey());
+            if (entry.getValue().kind == FILE) {
+                files.put(path, entry.getValue().id);
+            } else {
+                flatten(entry.getValue().id, path, files);
+            }
+        }
+    }
+
+    /** 比较两个根tree，把FROMID中有而TOID中没有的文件放进REMOVED，TOID中新增的文件
+     *  (路径到blob id)放进ADDED，两边都有但内容不同的放进CHANGED。id相同的子树直接跳过。 */
+    static void diff(String fromId, String toId, Map<String, String> added,
+                     Map<String, String> changed, List<String> removed) {
+        diff(fromId, toId, null, added, changed, removed);
+    }
+
+    private static void diff(String fromId, String toId, String prefix, Map<String, String> added,
+                             Map<String, String> changed, List<String> removed) {
+        if (Objects.equals(fromId, toId)) {
+            return;
+        }
+        Map<String, Entry> from = entriesOf(fromId);
+        Map<String, Entry> to = entriesOf(toId);
+        TreeSet<String> names = new TreeSet<>(from.keySet());
+        names.addAll(to.keySet());
+        for (String name : names) {
+            String path = child(prefix, name);
+            String fromFile = fileId(from.get(name));
+            String toFile = fileId(to.get(name));
+            if (fromFile != null && toFile == null) {
+                removed.add(path);
+            } else if (fromFile == null && toFile != null) {
+                added.put(path, toFile);
+            } else if (toFile != null && !toFile.equals(fromFile)) {
+                changed.put(path, toFile);
+            }
+            diff(directoryId(from.get(name)), directoryId(to.get(name)), path,
+                    added, changed, removed);
+        }
+    }
+
+    /** 为三方合并挑出需要逐个文件比较的部分：SPLITID、CURID、TARGETID是分割点、当前分支和
+     *  目标分支的根tree。某个子树或文件在目标分支中和分割点相同，或者和当前分支相同时，
+     *  合并不会改变它，整个跳过；其余文件按所在的一边分别放进SPLIT、CUR、TARGET。 */
+    static void mergeCandidates(String splitId, String curId, String targetId,
+                                Map<String, String> split, Map<String, String> cur,
+                                Map<String, String> target) {
+        mergeCandidates(splitId, curId, targetId, null, split, cur, target);
+    }
+
+    private static void mergeCandidates(String splitId, String curId, String targetId,
+                                        String prefix, Map<String, String> split,
+                                        Map<String, String> cur, Map<String, String> target) {
+        if (Objects.equals(splitId, targetId) || Objects.equals(curId, targetId)) {
+            return;
+        }
+        Map<String, Entry> splitEntries = entriesOf(splitId);
+        Map<String, Entry> curEntries = entriesOf(curId);
+        Map<String, Entry> targetEntries = entriesOf(targetId);
+        TreeSet<String> names = new TreeSet<>(splitEntries.keySet());
+        names.addAll(curEntries.keySet());
+        names.addAll(targetEntries.keySet());
+        for (String name : names) {
+            String path = child(prefix, name);
+            String splitFile = fileId(splitEntries.get(name));
+            String curFile = fileId(curEntries.get(name));
+            String targetFile = fileId(targetEntries.get(name));
+            if (!Objects.equals(splitFile, targetFile) && !Objects.equals(curFile, targetFile)) {
+                putIfPresent(split, path, splitFile);
+                putIfPresent(cur, path, curFile);
+                putIfPresent(target, path, targetFile);
+            }
+            mergeCandidates(directoryId(splitEntries.get(name)), directoryId(curEntries.get(name)),
+                    directoryId(targetEntries.get(name)), path, split, cur, target);
+        }
+    }
+
+    private static void putIfPresent(Map<String, String> files, String path, String blobId) {
+        if (blobId != null) {
+            files.put(path, blobId);
+        }
+    }
+
+    private static Map<String, Entry> entriesOf(String treeId) {
+        return treeId == null ? Collections.emptyMap() : read(treeId).entries;
+    }
+
+    private static String fileId(Entry entry) {
+        return entry != null && entry.kind == FILE ? entry.id : null;
+    }
+
+    private static String directoryId(Entry entry) {
+        return entry != null && entry.kind == DIRECTORY ? entry.id : null;
+    }
+
+    private static String child(String prefix, String name) {
+        return prefix == null ? name : prefix + File.separator + name;
+    }
+
+    private static Tree read(String treeId) {
+        return ObjectStore.readObject(treeId, Tree.class);
+    }
+
+    /** 保存由ENTRIES组成的tree，对象库中已有时跳过，返回它的id。 */
+    private static String save(TreeMap<String, Entry> entries) {
+        Tree tree = new Tree(entries);
+        String id = tree.id();
+        if (!ObjectStore.contains(id)) {
+            ObjectStore.writeObject(id, tree);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,483 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.join;
+
+/** commit说明的三元组(trigram)索引，find --grep先用它缩小候选范围，再对候选跑正则。
+ *
+ *  一个三元组是说明中连续的三个char，打包成一个long。
+ *  索引文件：  "GTRI" | 版本 | commit数 | 三元组数 | 各commit的20字节id(按加入顺序编号)
+ *              | 按三元组排序的表项 | 各三元组的commit编号列表(递增)
+ *  表项：      三元组(8字节) | 编号列表的起始位置 | 编号个数
+ *  新commit先追加到trigram-index.tail(20字节id | 说明的UTF-8字节数 | 说明)，查询时逐条检查；
+ *  trigram-index.tail超过TAIL_LIMIT字节时才合并进索引文件，所以每次commit只追加一条记录。
+ *
+ *  正则中不在分组、字符类里，也不带*、?、{}的连续普通字符一定会出现在匹配的说明中，
+ *  这些字符串的三元组都要出现，候选就是各三元组编号列表的交集。
+ *  正则中有顶层的|或者(?i)之类的标记时取不出必需的字符串，所有commit都是候选。
+ *
+ *  @author Zhurish
+ */
+class TrigramIndex {
+    private static final int MAGIC = 0x47545249;    // "GTRI"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    private static final int ENTRY_SIZE = 16;
+    /** trigram-index.tail的大小上限(字节)。 */
+    private static final long TAIL_LIMIT = 64 * 1024;
+
+    /** 当前仓库(见Repository.current)的索引文件。 */
+    static File indexFile() {
+        return join(Repository.current().gitletDir(), "trigram-index");
+    }
+
+    /** 索引文件之后追加的commit。 */
+    static File tailFile() {
+        return join(Repository.current().gitletDir(), "trigram-index.tail");
+    }
+
+    /** 新建空的索引，init时调用。 */
+    static void create() {
+        write(new ArrayList<>(), new TreeMap<>());
+        Utils.writeContents(tailFile(), new byte[0]);
+    }
+
+    static boolean exists() {
+        return indexFile().isFile() && tailFile().isFile();
+    }
+
+    /** 把刚保存的COMMIT加入索引；索引不存在时什么也不做。 */
+    static void add(Commit commit) {
+        if (!exists()) {
+            return;
+        }
+        byte[] text = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(ID_BYTES + 4 + text.length);
+        record.put(Utils.uidToBytes(commit.getCommitID()));
+        record.putInt(text.length);
+        record.put(text);
+        try (RandomAccessFile tail = new RandomAccessFile(tailFile(), "rw")) {
+            tail.seek(tail.length());
+            tail.write(record.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (tailFile().length() > TAIL_LIMIT) {
+            merge();
+        }
+    }
+
+    /** 按字典序返回说明可能匹配REGEX的commit的id，一定包含所有真正匹配的commit；
+     *  索引不存在时返回null。 */
+    static List<String> candidates(String regex) {
+        if (!exists()) {
+            return null;
+        }
+        List<String> literals = requiredLiterals(regex);
+        Set<Long> required = new HashSet<>();
+        if (literals != null) {
+            for (String literal : literals) {
+                required.addAll(trigrams(literal));
+            }
+        }
+        ByteBuffer index = map(indexFile());
+        int commits = index.getInt(8);
+        List<String> ids = new ArrayList<>();
+        if (required.isEmpty()) {
+            for (int i = 0; i < commits; i += 1) {
+                ids.add(idAt(index, i));
+            }
+        } else {
+            for (int ordinal : intersect(index, required)) {
+                ids.add(idAt(index, ordinal));
+            }
+        }
+        for (Map.Entry<String, String> record : readTail().entrySet()) {
+            if (trigrams(record.getValue()).containsAll(required)) {
+                ids.add(record.getKey());
+            }
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    /** 扫描对象库中所有的commit，重新生成索引。 */
+    static void rebuild() {
+        List<String> ids = new ArrayList<>();
+        TreeMap<Long, List<Integer>> postings = new TreeMap<>();
+        for (String id : ObjectStore.allObjectIds()) {
+            if (!ObjectStore.mayBeOfType(id, Commit.class)) {
+                continue;
+            }
+            try {
+                String message = ObjectStore.readObject(id, Commit.class).getMessage();
+                addPostings(postings, ids.size(), message);
+                ids.add(id);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+        }
+        write(ids, postings);
+        Utils.writeContents(tailFile(), new byte[0]);
+    }
+
+    /** 把trigram-index.tail中的commit并入索引文件，然后清空trigram-index.tail。 */
+    private static void merge() {
+        ByteBuffer index = map(indexFile());
+        int commits = index.getInt(8);
+        int count = index.getInt(12);
+        List<String> ids = new ArrayList<>(commits);
+        for (int i = 0; i < commits; i += 1) {
+            ids.add(idAt(index, i));
+        }
+        TreeMap<Long, List<Integer>> postings = new TreeMap<>();
+        int tableStart = HEADER + commits * ID_BYTES;
+        for (int i = 0; i < count; i += 1) {
+            int entry = tableStart + i * ENTRY_SIZE;
+            List<Integer> list = new ArrayList<>();
+            for (int ordinal : postingsAt(index, entry)) {
+                list.add(ordinal);
+            }
+            postings.put(index.getLong(entry), list);
+        }
+        for (Map.Entry<String, String> record : readTail().entrySet()) {
+            addPostings(postings, ids.size(), record.getValue());
+            ids.add(record.getKey());
+        }
+        write(ids, postings);
+        Utils.writeContents(tailFile(), new byte[0]);
+    }
+
+    private static void addPostings(TreeMap<Long, List<Integer>> postings, int ordinal,
+                                    String message) {
+        for (long trigram : trigrams(message)) {
+            postings.computeIfAbsent(trigram, k -> new ArrayList<>()).add(ordinal);
+        }
+    }
+
+    /** 返回TEXT中所有不同的三元组。 */
+    static Set<Long> trigrams(String text) {
+        Set<Long> result = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i += 1) {
+            result.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16)
+                    | text.charAt(i + 2));
+        }
+        return result;
+    }
+
+    /** 返回匹配REGEX的字符串中一定出现的字符串(长度不小于3)，取不出时返回null。 */
+    static List<String> requiredLiterals(String regex) {
+        if (regex.contains("(?") && !regex.replace("(?:", "").contains("(?")) {
+            regex = regex.replace("(?:", "(");
+        }
+        if (regex.contains("(?")) {
+            return null;    // (?i)等标记会改变匹配方式
+        }
+        List<String> literals = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) {
+                    return null;
+                }
+                char next = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(next)) {
+                    flush(literals, run);   // \d \x41 \p{L} \1 等，连同参数整个跳过
+                    i = skipEscape(regex, i);
+                    if (i < 0) {
+                        return null;        // \Q或者不认识的转义
+                    }
+                } else {
+                    run.append(next);
+                    i += 2;
+                }
+            } else if (c == '[') {
+                flush(literals, run);
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                flush(literals, run);
+                i = skipGroup(regex, i);
+            } else if (c == '|') {
+                return null;
+            } else if (c == '*' || c == '?' || c == '{') {
+                // 前一个字符可以不出现，增补字符占两个char，要整个去掉
+                if (run.length() > 0) {
+                    run.setLength(run.length() - Character.charCount(run.codePointBefore(run.length())));
+                }
+                flush(literals, run);
+                i = c == '{' ? regex.indexOf('}', i) + 1 : i + 1;
+                if (i == 0) {
+                    return null;
+                }
+            } else if (".^$+)".indexOf(c) >= 0) {
+                flush(literals, run);
+                i += 1;
+            } else {
+                run.append(c);
+                i += 1;
+            }
+        }
+        flush(literals, run);
+        return literals;
+    }
+
+    private static void flush(List<String> literals, StringBuilder run) {
+        if (run.length() >= 3) {
+            literals.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /** 跳过从START开始、反斜杠后是字母或数字的转义，返回其后的位置。\x41、\u0041、\0101、
+     *  \cA、\p{L}、\k<name>等的参数一起跳过，多跳过几个字符只会让候选多一些；
+     *  \Q和不认识的转义返回-1。 */
+    private static int skipEscape(String regex, int start) {
+        char kind = regex.charAt(start + 1);
+        int i = start + 2;
+        switch (kind) {
+            case 'x':
+                return i < regex.length() && regex.charAt(i) == '{'
+                        ? skipPast(regex, i, '}') : Math.min(i + 2, regex.length());
+            case 'u':
+                return Math.min(i + 4, regex.length());
+            case 'c':
+                return Math.min(i + 1, regex.length());
+            case '0':
+                while (i < regex.length() && i < start + 5
+                        && regex.charAt(i) >= '0' && regex.charAt(i) <= '7') {
+                    i += 1;
+                }
+                return i;
+            case 'p':
+            case 'P':
+                return i < regex.length() && regex.charAt(i) == '{'
+                        ? skipPast(regex, i, '}') : Math.min(i + 1, regex.length());
+            case 'N':
+                return i < regex.length() && regex.charAt(i) == '{' ? skipPast(regex, i, '}') : -1;
+            case 'k':
+                return i < regex.length() && regex.charAt(i) == '<' ? skipPast(regex, i, '>') : -1;
+            default:
+                if (kind >= '1' && kind <= '9') {
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                        i += 1;     // 反向引用
+                    }
+                    return i;
+                }
+                return "dDwWsShHvVbBAzZGRXntrfae".indexOf(kind) >= 0 ? i : -1;
+        }
+    }
+
+    /** 返回FROM之后第一个CLOSE的下一个位置，没有时返回-1。 */
+    private static int skipPast(String regex, int from, char close) {
+        int end = regex.indexOf(close, from);
+        return end < 0 ? -1 : end + 1;
+    }
+
+    /** 跳过从START开始的字符类[...]，返回其后的位置。 */
+    private static int skipClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i += 1;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i += 1;
+        }
+        int depth = 1;
+        while (i < regex.length() && depth > 0) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 1;
+            } else if (c == '[') {
+                depth += 1;
+            } else if (c == ']') {
+                depth -= 1;
+            }
+            i += 1;
+        }
+        return i;
+    }
+
+    /** 跳过从START开始的分组(...)，返回其后的位置；分组中可以有|，不影响外面。 */
+    private static int skipGroup(String regex, int start) {
+        int i = start + 1;
+        int depth = 1;
+        while (i < regex.length() && depth > 0) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 1;
+            } else if (c == '[') {
+                i = skipClass(regex, i) - 1;
+            } else if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+            }
+            i += 1;
+        }
+        return i;
+    }
+
+    /** 返回同时含有REQUIRED中所有三元组的commit编号，从最短的列表开始求交集。 */
+    private static int[] intersect(ByteBuffer index, Set<Long> required) {
+        int commits = index.getInt(8);
+        int count = index.getInt(12);
+        int tableStart = HEADER + commits * ID_BYTES;
+        List<Integer> entries = new ArrayList<>();
+        for (long trigram : required) {
+            int entry = findTrigram(index, tableStart, count, trigram);
+            if (entry < 0) {
+                return new int[0];
+            }
+            entries.add(entry);
+        }
+        entries.sort((a, b) -> Integer.compare(index.getInt(a + 12), index.getInt(b + 12)));
+        int[] result = postingsAt(index, entries.get(0));
+        for (int i = 1; i < entries.size() && result.length > 0; i += 1) {
+            int[] other = postingsAt(index, entries.get(i));
+            int[] merged = new int[Math.min(result.length, other.length)];
+            int n = 0;
+            int a = 0;
+            int b = 0;
+            while (a < result.length && b < other.length) {
+                if (result[a] < other[b]) {
+                    a += 1;
+                } else if (result[a] > other[b]) {
+                    b += 1;
+                } else {
+                    merged[n++] = result[a];
+                    a += 1;
+                    b += 1;
+                }
+            }
+            result = Arrays.copyOf(merged, n);
+        }
+        return result;
+    }
+
+    /** 在三元组表中二分查找TRIGRAM，返回表项的位置，找不到返回-1。 */
+    private static int findTrigram(ByteBuffer index, int tableStart, int count, long trigram) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = index.getLong(tableStart + mid * ENTRY_SIZE);
+            if (value < trigram) {
+                lo = mid + 1;
+            } else if (value > trigram) {
+                hi = mid - 1;
+            } else {
+                return tableStart + mid * ENTRY_SIZE;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] postingsAt(ByteBuffer index, int entry) {
+        int start = index.getInt(entry + 8);
+        int[] ordinals = new int[index.getInt(entry + 12)];
+        for (int i = 0; i < ordinals.length; i += 1) {
+            ordinals[i] = index.getInt(start + i * 4);
+        }
+        return ordinals;
+    }
+
+    private static String idAt(ByteBuffer index, int ordinal) {
+        byte[] id = new byte[ID_BYTES];
+        index.position(HEADER + ordinal * ID_BYTES);
+        index.get(id);
+        return Utils.bytesToUid(id);
+    }
+
+    /** 按追加顺序读出trigram-index.tail中的记录：commit id到说明。 */
+    private static Map<String, String> readTail() {
+        Map<String, String> records = new LinkedHashMap<>();
+        ByteBuffer tail = ByteBuffer.wrap(Utils.readContents(tailFile()));
+        while (tail.remaining() >= ID_BYTES + 4) {
+            byte[] id = new byte[ID_BYTES];
+            tail.get(id);
+            int length = tail.getInt();
+            if (length > tail.remaining()) {
+                break;  // 写到一半的记录
+            }
+            byte[] text = new byte[length];
+            tail.get(text);
+            records.put(Utils.bytesToUid(id), new String(text, StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+
+    /** 把IDS和POSTINGS写成新的索引文件(先写临时文件再改名)。 */
+    private static void write(List<String> ids, TreeMap<Long, List<Integer>> postings) {
+        int total = 0;
+        for (List<Integer> list : postings.values()) {
+            total += list.size();
+        }
+        int tableStart = HEADER + ids.size() * ID_BYTES;
+        int postingStart = tableStart + postings.size() * ENTRY_SIZE;
+        ByteBuffer index = ByteBuffer.allocate(postingStart + total * 4);
+        index.putInt(MAGIC);
+        index.putInt(VERSION);
+        index.putInt(ids.size());
+        index.putInt(postings.size());
+        for (String id : ids) {
+            index.put(Utils.uidToBytes(id));
+        }
+        int offset = postingStart;
+        for (Map.Entry<Long, List<Integer>> entry : postings.entrySet()) {
+            index.putLong(entry.getKey());
+            index.putInt(offset);
+            index.putInt(entry.getValue().size());
+            offset += entry.getValue().size() * 4;
+        }
+        for (List<Integer> list : postings.values()) {
+            for (int ordinal : list) {
+                index.putInt(ordinal);
+            }
+        }
+        index.flip();
+        File tmp = new File(indexFile().getPath() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (index.hasRemaining()) {
+                    channel.write(index);
+                }
+            }
+            Files.move(tmp.toPath(), indexFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static ByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt trigram index.");
+            }
+            return buffer;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/** Unix域套接字，daemon和它的客户端之间用。
+ *
+ *  需要Java 16起的UnixDomainSocketAddress和StandardProtocolFamily.UNIX；
+ *  编译目标是Java 9，所以这几个API都通过反射调用，更早的Java上supported()返回false。
+ *
+ *  @author Zhurish
+ */
+class UnixSockets {
+    private static final ProtocolFamily UNIX;
+    private static final Method ADDRESS_OF;
+
+    static {
+        ProtocolFamily unix = null;
+        Method addressOf = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException excp) {
+            unix = null;
+        }
+        UNIX = unix;
+        ADDRESS_OF = addressOf;
+    }
+
+    private UnixSockets() {
+    }
+
+    /** 当前的Java支持Unix域套接字时返回true。 */
+    static boolean supported() {
+        return UNIX != null;
+    }
+
+    /** 返回文件PATH对应的套接字地址。 */
+    static SocketAddress address(Path path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, null, path);
+    }
+
+    /** 打开一个还没有绑定的服务端通道。 */
+    static ServerSocketChannel openServer() throws IOException {
+        return (ServerSocketChannel) open(ServerSocketChannel.class);
+    }
+
+    /** 连接到PATH上的服务端。 */
+    static SocketChannel connect(Path path) throws IOException {
+        SocketChannel channel = (SocketChannel) open(SocketChannel.class);
+        try {
+            channel.connect(address(path));
+            return channel;
+        } catch (IOException excp) {
+            channel.close();
+            throw excp;
+        }
+    }
+
+    private static Object open(Class<?> channelClass) throws IOException {
+        if (!supported()) {
+            throw new IOException("Unix domain sockets need Java 16 or later");
+        }
+        try {
+            return invoke(channelClass.getMethod("open", ProtocolFamily.class), null, UNIX);
+        } catch (NoSuchMethodException excp) {
+            throw new IOException(excp.getMessage());
+        }
+    }
+
+    /** 调用METHOD，把它抛出的IOException原样抛出，其他异常转成IllegalArgumentException。 */
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        } catch (IllegalAccessException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
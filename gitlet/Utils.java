@@ -1,13 +1,16 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -31,32 +34,78 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the buffer used when streaming file contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays, Strings and InputStreams.  Streams
+     *  are read to the end through a small buffer and closed, so they
+     *  are hashed without being held in memory. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
+        MessageDigest md = newSha1();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else if (val instanceof InputStream) {
+                try (InputStream in = (InputStream) val) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        md.update(buffer, 0, n);
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
                 }
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+        }
+        return sha1Digest(md);
+    }
+
+    /** Returns a fresh SHA-1 MessageDigest, for hashing data that is fed
+     *  in pieces rather than passed to sha1 all at once. */
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns the hexadecimal SHA-1 UID of everything fed to MD so far. */
+    static String sha1Digest(MessageDigest md) {
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    /** Returns the UID_LENGTH / 2 bytes denoted by the hexadecimal
+     *  UID ID. */
+    static byte[] uidToBytes(String id) {
+        byte[] bytes = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /** Returns the hexadecimal UID denoted by the bytes in BYTES. */
+    static String bytesToUid(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -104,6 +153,61 @@ class Utils {
         }
     }
 
+    /** Return a buffered stream over the contents of FILE.  FILE must
+     *  be a normal file.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static InputStream openContents(File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try {
+            return new BufferedInputStream(Files.newInputStream(file.toPath()),
+                                           BUFFER_SIZE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy everything from IN to FILE through a fixed-size buffer,
+     *  creating or overwriting FILE as needed, and close IN.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeContents(File file, InputStream in) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (InputStream source = in;
+             OutputStream out = Files.newOutputStream(file.toPath())) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = source.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff streams A and B yield the same bytes.  Both are
+     *  read through fixed-size buffers and closed. */
+    static boolean sameContents(InputStream a, InputStream b) {
+        try (InputStream first = a; InputStream second = b) {
+            byte[] bufferA = new byte[BUFFER_SIZE];
+            byte[] bufferB = new byte[BUFFER_SIZE];
+            while (true) {
+                int n = first.readNBytes(bufferA, 0, BUFFER_SIZE);
+                int m = second.readNBytes(bufferB, 0, BUFFER_SIZE);
+                if (n != m || !Arrays.equals(bufferA, 0, n, bufferB, 0, m)) {
+                    return false;
+                }
+                if (n < BUFFER_SIZE) {
+                    return true;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return the entire contents of FILE as a String.  FILE must
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
@@ -230,4 +334,14 @@ class Utils {
         System.out.printf(msg, args);
         System.out.println();
     }
+
+    /** End the current command with exit code STATUS.  Normally this exits
+     *  the JVM; while a daemon is serving commands it throws Daemon.Exit
+     *  instead, so only the command ends and the daemon keeps running. */
+    static void exit(int status) {
+        if (Daemon.isServing()) {
+            throw new Daemon.Exit(status);
+        }
+        System.exit(status);
+    }
 }
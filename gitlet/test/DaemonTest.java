@@ -0,0 +1,148 @@
+package gitlet.test;
+
+import gitlet.Main;
+import gitlet.Repository;
+import org.testng.annotations.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DaemonTest {
+    private static final File SOCKET = new File(Repository.GITLET_DIR, "daemon.sock");
+
+    /** 一次请求的结果：标准输出、标准错误和退出码。 */
+    private static class Reply {
+        final String out;
+        final String err;
+        final int status;
+
+        Reply(String out, String err, int status) {
+            this.out = out;
+            this.err = err;
+            this.status = status;
+        }
+    }
+
+    /**
+     * 测试：通过daemon执行命令，输出和单独运行时相同；上次留下的套接字文件会被接管
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        if (!unixSocketsSupported()) {
+            return;     // Java 16之前没有Unix域套接字，daemon不可用
+        }
+        if (Repository.GITLET_DIR.exists()) {
+            TestUtils.deleteDirectory(Repository.GITLET_DIR);
+        }
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("daemon.txt", "served");
+        Main.main(new String[]{"add", "daemon.txt"});
+        Main.main(new String[]{"commit", "through the daemon"});
+        String expectedLog = TestUtils.captureOutput(() -> Main.main(new String[]{"log"}));
+
+        // 没有正常退出的daemon留下的套接字文件
+        assertTrue(SOCKET.createNewFile());
+        Thread daemon = startDaemon();
+        try {
+            Reply log = send("log");
+            assertEquals(expectedLog, log.out);
+            assertEquals("", log.err);
+            assertEquals(0, log.status);
+
+            Reply missing = send("checkout", "no-such-branch");
+            assertEquals("No such branch exists.", missing.out.trim());
+            assertEquals(0, missing.status);
+
+            Reply unknown = send("frobnicate");
+            assertEquals("No command with that name exists.", unknown.out.trim());
+
+            Reply find = send("find", "through the daemon");
+            assertEquals(1, find.out.trim().split("\\R").length);
+        } finally {
+            SOCKET.delete();
+            daemon.join(10000);
+        }
+        assertFalse(daemon.isAlive());
+        new File("daemon.txt").delete();
+    }
+
+    private static boolean unixSocketsSupported() {
+        for (StandardProtocolFamily family : StandardProtocolFamily.values()) {
+            if (family.name().equals("UNIX")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 在另一个线程中运行gitlet daemon，等到它开始接受连接。 */
+    private static Thread startDaemon() throws Exception {
+        Thread daemon = new Thread(() -> Main.main(new String[]{"daemon"}));
+        daemon.setDaemon(true);
+        daemon.start();
+        for (int i = 0; i < 100; i += 1) {
+            try {
+                connect().close();
+                return daemon;
+            } catch (IOException excp) {
+                Thread.sleep(100);
+            }
+        }
+        fail("The daemon did not start.");
+        return daemon;
+    }
+
+    private static SocketChannel connect() throws Exception {
+        Class<?> sockets = Class.forName("gitlet.UnixSockets");
+        Method connect = sockets.getDeclaredMethod("connect", Path.class);
+        connect.setAccessible(true);
+        try {
+            return (SocketChannel) connect.invoke(null, SOCKET.toPath());
+        } catch (java.lang.reflect.InvocationTargetException excp) {
+            if (excp.getCause() instanceof IOException) {
+                throw (IOException) excp.getCause();
+            }
+            throw excp;
+        }
+    }
+
+    /** 和DaemonClient一样发送ARGS，读回各帧和退出码。 */
+    private static Reply send(String... args) throws Exception {
+        try (SocketChannel channel = connect()) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == 0) {
+                    return new Reply(stdout.toString(StandardCharsets.UTF_8.name()),
+                            stderr.toString(StandardCharsets.UTF_8.name()), in.readInt());
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                (kind == 2 ? stderr : stdout).write(bytes);
+            }
+        }
+    }
+}
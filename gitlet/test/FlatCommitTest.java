@@ -0,0 +1,171 @@
+package gitlet.test;
+
+import gitlet.Commit;
+import gitlet.Main;
+import gitlet.ObjectStore;
+import gitlet.Repository;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlatCommitTest {
+    /** 版本3的commit在parent之后记录完整的文件列表。 */
+    private static final int VERSION_3 = 3;
+    private static final int COMMIT = 2;
+
+    /**
+     * 测试：版本3的commit，log只读到parent为止，不读文件列表
+     */
+    @Test
+    public void testLogSkipsManifest() throws Exception {
+        resetGitlet();
+        String parent = Repository.readLastCommit().getCommitID();
+        // 文件列表只有个数没有内容，读文件列表一定失败
+        String id = writeFlatCommit("flat commit", parent, null);
+        pointMasterAt(id);
+
+        String log = TestUtils.captureOutput(() -> Main.main(new String[]{"log"}));
+        assertTrue(log.contains("commit " + id), log);
+        assertTrue(log.contains("flat commit"), log);
+        Commit commit = ObjectStore.readObject(id, Commit.class);
+        try {
+            commit.getPathToBlobID();
+            fail("the truncated file list should not decode");
+        } catch (IllegalArgumentException excp) {
+            // log没有读到这里
+        }
+    }
+
+    /**
+     * 测试：版本3的commit用到文件列表时读出全部文件，对象在松散文件中和只在pack中都一样
+     */
+    @Test
+    public void testManifestReadOnDemand() throws Exception {
+        resetGitlet();
+        TestUtils.createFile("flat1.txt", "one");
+        TestUtils.createFile("flat2.txt", "two");
+        Main.main(new String[]{"add", "flat1.txt"});
+        Main.main(new String[]{"add", "flat2.txt"});
+        Main.main(new String[]{"commit", "two files"});
+        Commit parent = Repository.readLastCommit();
+        Map<String, String> files = new TreeMap<>(parent.getPathToBlobID());
+        assertEquals(2, files.size());
+
+        String id = writeFlatCommit("flat commit", parent.getCommitID(), files);
+        pointMasterAt(id);
+        assertEquals(files, ObjectStore.readObject(id, Commit.class).getPathToBlobID());
+
+        Main.main(new String[]{"repack"});
+        assertFalse(ObjectStore.objectFile(id).isFile());
+        Object cache = objectCache();
+        try {
+            call(cache, "setCapacity", 0L);     // 丢掉缓存中已经展开的commit
+            Commit packed = ObjectStore.readObject(id, Commit.class);
+            assertEquals(files, packed.getPathToBlobID());
+            assertEquals(files, Repository.readLastCommit().getPathToBlobID());
+        } finally {
+            call(cache, "setCapacity", 64L * 1024 * 1024);
+        }
+        new File("flat1.txt").delete();
+        new File("flat2.txt").delete();
+    }
+
+    private static void resetGitlet() {
+        if (Repository.GITLET_DIR.exists()) {
+            TestUtils.deleteDirectory(Repository.GITLET_DIR);
+        }
+        Main.main(new String[]{"init"});
+    }
+
+    /** 按版本3的格式写一个松散的commit对象，返回它的id。FILES为null时只写文件个数。 */
+    private static String writeFlatCommit(String message, String parent, Map<String, String> files)
+            throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(0);
+            byte[] text = message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+            out.writeInt(1);
+            out.write(idBytes(parent));
+            if (files == null) {
+                out.writeInt(3);
+            } else {
+                out.writeInt(files.size());
+                for (Map.Entry<String, String> entry : files.entrySet()) {
+                    byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(path.length);
+                    out.write(path);
+                    out.write(idBytes(entry.getValue()));
+                }
+            }
+        }
+        // 不压缩的头部，之后是标记为不压缩(0)的内容
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        stored.write(VERSION_3);
+        stored.write(COMMIT);
+        stored.write(new byte[]{(byte) (body.size() >>> 24), (byte) (body.size() >>> 16),
+            (byte) (body.size() >>> 8), (byte) body.size()});
+        stored.write(0);
+        body.writeTo(stored);
+        String id = sha1(stored.toByteArray());
+        File file = ObjectStore.objectFile(id);
+        file.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            stored.writeTo(out);
+        }
+        return id;
+    }
+
+    private static void pointMasterAt(String id) throws IOException {
+        File branch = new File(Repository.HEADS_DIR, "master");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(branch))) {
+            out.writeObject(id);
+        }
+    }
+
+    private static byte[] idBytes(String id) {
+        byte[] bytes = new byte[id.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String sha1(byte[] bytes) throws Exception {
+        StringBuilder id = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+            id.append(String.format("%02x", b));
+        }
+        return id.toString();
+    }
+
+    private static Object objectCache() throws Exception {
+        Method cache = ObjectStore.class.getDeclaredMethod("cache");
+        cache.setAccessible(true);
+        return cache.invoke(null);
+    }
+
+    private static Object call(Object cache, String name, Object... args) throws Exception {
+        for (Method method : cache.getClass().getDeclaredMethods()) {
+            if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                method.setAccessible(true);
+                return method.invoke(cache, args);
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+}
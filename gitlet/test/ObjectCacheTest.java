@@ -0,0 +1,176 @@
+package gitlet.test;
+
+import gitlet.Blob;
+import gitlet.Commit;
+import gitlet.Main;
+import gitlet.ObjectStore;
+import gitlet.Repository;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectCacheTest {
+    /** 1000字节的blob在缓存中按64 + 1000字节计。 */
+    private static final long BLOB_WEIGHT = 64 + 1000;
+
+    /**
+     * 测试：命中、未命中和淘汰的计数，缓存的大小不超过容量
+     */
+    @Test
+    public void testCountersAndCapacity() throws Exception {
+        resetGitlet();
+        Object cache = newCache(16 * BLOB_WEIGHT);
+        for (int i = 0; i < 20; i += 1) {
+            call(cache, "put", "id" + i, blob("b" + i, 1000));
+        }
+        assertNull(call(cache, "get", "id0", Blob.class));
+        assertNotNull(call(cache, "get", "id19", Blob.class));
+        assertNull(call(cache, "get", "id19", Commit.class));
+        // 超过容量1/8的对象不缓存
+        call(cache, "put", "big", blob("big", 3000));
+        assertNull(call(cache, "get", "big", Blob.class));
+        assertEquals(String.format("1 hits, 3 misses, 4 evictions, %d/%d bytes",
+                16 * BLOB_WEIGHT, 16 * BLOB_WEIGHT), call(cache, "stats"));
+        TestUtils.deleteTestFiles();
+    }
+
+    /**
+     * 测试：commit展开文件列表之后按文件数重新计算大小，超过容量1/8时移出缓存
+     */
+    @Test
+    public void testCommitReweighedAfterExpansion() throws Exception {
+        resetGitlet();
+        for (int i = 0; i < 50; i += 1) {
+            TestUtils.createFile("cached" + i + ".txt", "content " + i);
+            Main.main(new String[]{"add", "cached" + i + ".txt"});
+        }
+        Main.main(new String[]{"commit", "fifty files"});
+        String id = Repository.readLastCommit().getCommitID();
+
+        Object cache = objectCache();
+        try {
+            call(cache, "setCapacity", 0L);
+            call(cache, "setCapacity", 24000L);
+            Commit commit = ObjectStore.readObject(id, Commit.class);
+            assertTrue(commit == ObjectStore.readObject(id, Commit.class), "header should be cached");
+            assertEquals(50, commit.getPathToBlobID().size());
+            // 展开后约64 + 50 * 128字节，超过了24000 / 8
+            assertTrue(commit != ObjectStore.readObject(id, Commit.class), "expanded commit should be dropped");
+            String stats = (String) call(cache, "stats");
+            long weight = Long.parseLong(stats.substring(stats.lastIndexOf(' ', stats.indexOf('/')) + 1,
+                    stats.indexOf('/')));
+            assertTrue(weight <= 24000, stats);
+        } finally {
+            call(cache, "setCapacity", 64L * 1024 * 1024);
+            for (int i = 0; i < 50; i += 1) {
+                new File("cached" + i + ".txt").delete();
+            }
+        }
+    }
+
+    /**
+     * 测试：每个仓库有自己的缓存，读不到只在另一个仓库中的对象；删除的对象移出缓存
+     */
+    @Test
+    public void testCachePerRepositoryAndDelete() throws Exception {
+        resetGitlet();
+        TestUtils.createFile("cached.txt", "only in the first repository");
+        Main.main(new String[]{"add", "cached.txt"});
+        Main.main(new String[]{"commit", "one file"});
+        String blobId = Repository.readLastCommit().getPathToBlobID().values().iterator().next();
+        assertNotNull(ObjectStore.readObject(blobId, Blob.class));
+
+        File otherRoot = new File(Repository.CWD, "cache-test-root");
+        TestUtils.deleteDirectory(otherRoot);
+        otherRoot.mkdirs();
+        try {
+            new Repository(otherRoot).init();
+            Repository other = Repository.open(otherRoot);
+            assertThrowsIllegalArgument(() -> within(other, () -> ObjectStore.readObject(blobId, Blob.class)));
+        } finally {
+            TestUtils.deleteDirectory(otherRoot);
+        }
+
+        Method delete = ObjectStore.class.getDeclaredMethod("delete", Collection.class);
+        delete.setAccessible(true);
+        delete.invoke(null, List.of(blobId));
+        assertThrowsIllegalArgument(() -> ObjectStore.readObject(blobId, Blob.class));
+        new File("cached.txt").delete();
+    }
+
+    private static void assertThrowsIllegalArgument(Runnable action) {
+        try {
+            action.run();
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException excp) {
+            // 对象不存在
+        }
+    }
+
+    /** 把当前线程绑定到REPOSITORY执行TASK，见Repository.within。 */
+    private static <T> T within(Repository repository, Supplier<T> task) {
+        try {
+            Method within = Repository.class.getDeclaredMethod("within", Supplier.class);
+            within.setAccessible(true);
+            @SuppressWarnings("unchecked")
+            T result = (T) within.invoke(repository, task);
+            return result;
+        } catch (InvocationTargetException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        } catch (ReflectiveOperationException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    private static Object objectCache() throws Exception {
+        Method cache = ObjectStore.class.getDeclaredMethod("cache");
+        cache.setAccessible(true);
+        return cache.invoke(null);
+    }
+
+    private static void resetGitlet() {
+        if (Repository.GITLET_DIR.exists()) {
+            TestUtils.deleteDirectory(Repository.GITLET_DIR);
+        }
+        Main.main(new String[]{"init"});
+    }
+
+    private static Blob blob(String name, int size) {
+        StringBuilder content = new StringBuilder(name);
+        while (content.length() < size) {
+            content.append('x');
+        }
+        TestUtils.createFile(name, content.toString());
+        Blob blob = new Blob(new File(name));
+        new File(name).delete();
+        return blob;
+    }
+
+    private static Object newCache(long capacity) throws Exception {
+        Constructor<?> constructor = Class.forName("gitlet.ObjectCache").getDeclaredConstructor(long.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(capacity);
+    }
+
+    /** 按名字和参数个数找到CACHE的方法NAME，用ARGS调用。 */
+    private static Object call(Object cache, String name, Object... args) throws Exception {
+        for (Method method : cache.getClass().getDeclaredMethods()) {
+            if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                method.setAccessible(true);
+                return method.invoke(cache, args);
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+}
@@ -3,6 +3,7 @@ package gitlet.test;
 import gitlet.Blob;
 import gitlet.Commit;
 import gitlet.Main;
+import gitlet.ObjectStore;
 import gitlet.Repository;
 import gitlet.test.TestUtils.ConsoleCapture;
 import gitlet.test.TestUtils.ExitCapture;
@@ -10,12 +11,10 @@ import gitlet.test.TestUtils.ExitCapture.NoExitSecurityManager.ExitException;
 import org.testng.annotations.Test;
 
 import java.io.*;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 
-import static gitlet.Repository.OBJECTS_DIR;
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -53,6 +52,30 @@ public class RepositoryAddTest {
         assertTrue("Blob file should exist after add.", blobExistsFor(absolutePath));
     }
 
+    /**
+     * 测试：内容相同的两个文件共用一个 Blob，但都会被暂存
+     */
+    @Test
+    public void testAddIdenticalFiles() {
+        resetGitlet();
+        Main.main(new String[]{"init"});
+
+        assertTrue(TestUtils.createFile("first.txt", "Same content"));
+        assertTrue(TestUtils.createFile("second.txt", "Same content"));
+        Main.main(new String[]{"add", "first.txt"});
+        Main.main(new String[]{"add", "second.txt"});
+
+        assertEquals(Blob.idOf(new File("first.txt").getAbsoluteFile()),
+                Blob.idOf(new File("second.txt").getAbsoluteFile()));
+        ConsoleCapture consoleCapture = new ConsoleCapture();
+        Main.main(new String[]{"status"});
+        String status = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        assertTrue("Both files should be staged.",
+                status.contains("first.txt") && status.contains("second.txt"));
+        TestUtils.deleteTestFiles();
+    }
+
     /**
      * 测试：添加不存在的文件，预期退出
      */
@@ -88,31 +111,17 @@ public class RepositoryAddTest {
 
     /**
      * 判断是否存在某个文件对应的 Blob 文件
+     * Blob 中不再记录路径，按文件内容算出 id 再查找
      */
     private boolean blobExistsFor(String filename) {
-        //
-        List<String> blobFiles = plainFilenamesIn(OBJECTS_DIR);
-
-        if (blobFiles == null) {
-            fail("No blob files found in the objects directory.");
-        }
-
-        for (String idString : blobFiles)
-        {
-            try
-            {
-                File blobFile = join(OBJECTS_DIR, idString);
-                Blob blob = readObject(blobFile, Blob.class);
-                Path path = Paths.get(filename);
-                if (blob.getPath().equals(path.toAbsolutePath().toString())) {
-                    return true;
-                }
-            }
-            catch (IllegalArgumentException ignored)
-            {
-            }
+        File file = Paths.get(filename).toAbsolutePath().toFile();
+        String id = Blob.idOf(file);
+        try {
+            ObjectStore.readObject(id, Blob.class);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
-        return false;
     }
 
     private static final FilenameFilter PLAIN_FILES =
@@ -136,20 +145,4 @@ public class RepositoryAddTest {
     static File join(File first, String... others) {
         return Paths.get(first.getPath(), others).toFile();
     }
-
-    static <T extends Serializable> T readObject(File file,
-                                                 Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                 | ClassNotFoundException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
-        }
-    }
-
-
 }
@@ -135,4 +135,36 @@ public class RepositoryCheckOutBranch {
         TestUtils.deleteTestFiles();
     }
 
+    @Test
+    public void testVerboseCheckoutCounts() {
+        // only the files that differ between the two branches are touched and counted
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("same.txt", "same");
+        TestUtils.createFile("changed.txt", "old");
+        TestUtils.createFile("removed.txt", "removed");
+        Main.main(new String[]{"add", "same.txt"});
+        Main.main(new String[]{"add", "changed.txt"});
+        Main.main(new String[]{"add", "removed.txt"});
+        Main.main(new String[]{"commit", "base"});
+        Main.main(new String[]{"branch", "new-branch"});
+        TestUtils.createFile("changed.txt", "new");
+        TestUtils.createFile("created.txt", "created");
+        Main.main(new String[]{"add", "changed.txt"});
+        Main.main(new String[]{"add", "created.txt"});
+        Main.main(new String[]{"rm", "removed.txt"});
+        Main.main(new String[]{"commit", "changes"});
+
+        String output = TestUtils.captureOutput(
+                () -> Main.main(new String[]{"checkout", "--verbose", "new-branch"}));
+        assertEquals("1 deleted, 1 created, 1 updated.", output.trim());
+        assertTrue(TestUtils.readFile("changed.txt").get().equals("old"));
+        assertTrue(TestUtils.fileExists("removed.txt"));
+        assertFalse(TestUtils.fileExists("created.txt"));
+        TestUtils.deleteTestFiles();
+    }
 }
@@ -204,4 +204,50 @@ public class RepositoryCheckoutCommitTest {
             throw new RuntimeException(e);
         }
     }
+
+    @Test
+    public void testAbbreviatedCommitId() {
+        // Remove the .gitlet directory if it exists
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("test.txt", "Hello, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "normal commit"});
+        TestUtils.createFile("test.txt", "Hello, Gitlet! Updated!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "updated commit"});
+
+        // The second entry of the log is the first commit, printed with its short id
+        TestUtils.ConsoleCapture consoleCapture = new TestUtils.ConsoleCapture();
+        Main.main(new String[]{"log", "--abbrev-commit"});
+        String log = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        String shortId = log.split("commit ")[2].split("\\s+")[0];
+        assertTrue(shortId.length() < 40, "Expected an abbreviated id, got: " + shortId);
+
+        Main.main(new String[]{"checkout", shortId, "--", "test.txt"});
+        Optional<String> content = TestUtils.readFile("test.txt");
+        assertTrue(content.isPresent(), "File content should be present.");
+        assertEquals("Hello, Gitlet!", content.get(), "File content should match the original commit.");
+
+        // An empty prefix matches every commit
+        consoleCapture = new TestUtils.ConsoleCapture();
+        TestUtils.ExitCapture exitCapture = new TestUtils.ExitCapture();
+        try {
+            Main.main(new String[]{"checkout", "", "--", "test.txt"});
+            fail("Expected to exit on an ambiguous commit id.");
+        } catch (ExitException e) {
+            assertTrue(consoleCapture.getOutput().contains("is ambiguous"), "Unexpected error message: " + consoleCapture.getOutput());
+            assertEquals(0, e.getExitCode());
+        } finally {
+            consoleCapture.destroy();
+            exitCapture.destroy();
+        }
+        TestUtils.deleteTestFiles();
+    }
 }
@@ -3,6 +3,7 @@ package gitlet.test;
 import gitlet.Blob;
 import gitlet.Commit;
 import gitlet.Main;
+import gitlet.ObjectStore;
 import gitlet.Repository;
 import gitlet.test.TestUtils.ExitCapture.NoExitSecurityManager.ExitException;
 import org.testng.annotations.Test;
@@ -39,14 +40,13 @@ public class RepositoryCommitTest {
             Main.main(new String[]{"commit", "normal commit"});
 
             // Check if the commit was successful
-            List<String> commitFiles = plainFilenamesIn(Repository.OBJECTS_DIR);
+            List<String> commitFiles = ObjectStore.allObjectIds();
             if (commitFiles == null) {
                 fail("No commit files found in the objects directory.");
             }
             for (String idString : commitFiles) {
                 try {
-                    File commitFile = join(Repository.OBJECTS_DIR, idString);
-                    Commit commit = readObject(commitFile, Commit.class);
+                    Commit commit = ObjectStore.readObject(idString, Commit.class);
                     if (commit.getMessage().equals("normal commit")) {
                         Path filePath = Paths.get("test.txt");
                         Blob blob = commit.getBlobByPath(filePath.toAbsolutePath().toString());
@@ -124,18 +124,4 @@ public class RepositoryCommitTest {
     static File join(File first, String... others) {
         return Paths.get(first.getPath(), others).toFile();
     }
-
-    static <T extends Serializable> T readObject(File file,
-                                                 Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                 | ClassNotFoundException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
-        }
-    }
 }
@@ -5,6 +5,8 @@ import gitlet.Repository;
 import gitlet.test.TestUtils.ExitCapture.NoExitSecurityManager.ExitException;
 import org.testng.annotations.Test;
 
+import java.io.File;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class RepositoryFindTest {
@@ -47,4 +49,127 @@ public class RepositoryFindTest {
             exitCapture.destroy();
         }
     }
+
+    @Test
+    public void testFindWithMessageIndex() {
+        // find should give the same ids from the message index and after rebuilding it
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("test.txt", "Hello, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "same message"});
+        TestUtils.createFile("test.txt", "Hello again, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "same message"});
+
+        TestUtils.ConsoleCapture consoleCapture = new TestUtils.ConsoleCapture();
+        Main.main(new String[]{"find", "same message"});
+        String indexed = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        assertEquals(2, indexed.trim().split("\\s+").length, "Expected two matching commits.");
+
+        // rebuild the index from scratch, the result should not change
+        new File(Repository.GITLET_DIR, "message-index").delete();
+        Main.main(new String[]{"reindex"});
+        consoleCapture = new TestUtils.ConsoleCapture();
+        Main.main(new String[]{"find", "same message"});
+        String rebuilt = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        assertEquals(indexed, rebuilt);
+        TestUtils.deleteTestFiles();
+    }
+
+    @Test
+    public void testFindGrep() {
+        // find --grep should give the same ids with and without the trigram index
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("test.txt", "Hello, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "fix parser bug"});
+        TestUtils.createFile("test.txt", "Hello again, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "fix lexer bug"});
+        TestUtils.createFile("test.txt", "Goodbye, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "add docs"});
+
+        TestUtils.ConsoleCapture consoleCapture = new TestUtils.ConsoleCapture();
+        Main.main(new String[]{"find", "--grep", "fix (parser|lexer) bug"});
+        String indexed = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        assertEquals(2, indexed.trim().split("\\s+").length, "Expected two matching commits.");
+
+        new File(Repository.GITLET_DIR, "trigram-index").delete();
+        consoleCapture = new TestUtils.ConsoleCapture();
+        Main.main(new String[]{"find", "--grep", "fix (parser|lexer) bug"});
+        String scanned = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        assertEquals(indexed, scanned);
+        TestUtils.deleteTestFiles();
+    }
+
+    @Test
+    public void testFindGrepEscapes() {
+        // escapes with operands (\x41, \u0041, \0101, \cA, \p{Lu}) are not literal text
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("test.txt", "Hello, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "ABCDEF release"});
+
+        TestUtils.ConsoleCapture consoleCapture = new TestUtils.ConsoleCapture();
+        Main.main(new String[]{"find", "--grep", "ABCDEF"});
+        String expected = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        assertEquals(1, expected.trim().split("\\s+").length, "Expected one matching commit.");
+
+        String[] patterns = {"\\x41BCDEF", "\\x{41}BCDEF", "\\u0041BCDEF", "\\0101BCDEF",
+            "\\p{Lu}BCDEF", "\\cA?ABCDEF", "ABC\\x44EF rel"};
+        for (String pattern : patterns) {
+            consoleCapture = new TestUtils.ConsoleCapture();
+            Main.main(new String[]{"find", "--grep", pattern});
+            String output = consoleCapture.getOutput();
+            consoleCapture.destroy();
+            assertEquals(expected, output, pattern);
+        }
+        TestUtils.deleteTestFiles();
+    }
+
+    @Test
+    public void testFindGrepOptionalSupplementaryCharacter() {
+        // "?" after a character outside the BMP makes both of its UTF-16 units optional
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("test.txt", "Hello, Gitlet!");
+        Main.main(new String[]{"add", "test.txt"});
+        Main.main(new String[]{"commit", "grab bag"});
+
+        TestUtils.ConsoleCapture consoleCapture = new TestUtils.ConsoleCapture();
+        Main.main(new String[]{"find", "--grep", "grab\uD83D\uDE00?"});
+        String output = consoleCapture.getOutput();
+        consoleCapture.destroy();
+        assertEquals(1, output.trim().split("\\s+").length, "Expected one matching commit.");
+        TestUtils.deleteTestFiles();
+    }
 }
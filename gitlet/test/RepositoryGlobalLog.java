@@ -2,6 +2,7 @@ package gitlet.test;
 
 import gitlet.Commit;
 import gitlet.Main;
+import gitlet.ObjectStore;
 import gitlet.Repository;
 import org.junit.Test;
 
@@ -47,7 +48,7 @@ public class RepositoryGlobalLog {
             Main.main(new String[]{"global-log"});
             String output = consoleCapture.getOutput();
             // Verify log output contains all commit information
-            List<String> commitFiles = plainFilenamesIn(OBJECTS_DIR);
+            List<String> commitFiles = ObjectStore.allObjectIds();
             {
                 if (commitFiles == null) {
                     fail("No commit files found in the objects directory.");
@@ -56,8 +57,7 @@ public class RepositoryGlobalLog {
                 {
                     try
                     {
-                        File commitFile = join(OBJECTS_DIR, idString);
-                        Commit commit = readObject(commitFile, Commit.class);
+                        Commit commit = ObjectStore.readObject(idString, Commit.class);
                         assertTrue("Log missing commit message: " + commit.getMessage(),
                                 output.contains(commit.getMessage()));
                         assertTrue("Log missing commit ID: " + commit.getCommitID(),
@@ -107,18 +107,4 @@ public class RepositoryGlobalLog {
     static File join(File first, String... others) {
         return Paths.get(first.getPath(), others).toFile();
     }
-
-    static <T extends Serializable> T readObject(File file,
-                                                 Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                 | ClassNotFoundException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
-        }
-    }
 }
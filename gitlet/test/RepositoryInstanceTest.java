@@ -0,0 +1,152 @@
+package gitlet.test;
+
+import gitlet.GitletException;
+import gitlet.ObjectStore;
+import gitlet.Repository;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RepositoryInstanceTest {
+    private static final File ROOT = new File(Repository.CWD, "instance-test-root");
+
+    private Repository freshRepository() {
+        TestUtils.deleteDirectory(ROOT);
+        ROOT.mkdirs();
+        new Repository(ROOT).init();
+        return Repository.open(ROOT);
+    }
+
+    @Test
+    public void testCommandsRunAgainstRoot() {
+        Repository repository = freshRepository();
+        try {
+            TestUtils.createFile(new File(ROOT, "a.txt").getPath(), "hello");
+            repository.add("a.txt");
+            repository.commit("first");
+
+            assertTrue(new File(ROOT, ".gitlet/refs/heads/master").exists());
+            String output = TestUtils.captureOutput(() -> repository.find("first"));
+            assertEquals(1, output.trim().split("\\R").length);
+            assertFalse(new File(Repository.CWD, "a.txt").exists());
+        } finally {
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    @Test
+    public void testErrorsAreThrown() {
+        Repository repository = freshRepository();
+        try {
+            try {
+                repository.checkoutBranch("missing");
+                fail("checkout of a missing branch should throw.");
+            } catch (GitletException excp) {
+                assertEquals("No such branch exists.", excp.getMessage());
+            }
+            try {
+                Repository.open(new File(ROOT, "nowhere"));
+                fail("opening an uninitialized directory should throw.");
+            } catch (GitletException excp) {
+                assertEquals("Not in an initialized Gitlet directory.", excp.getMessage());
+            }
+        } finally {
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    @Test
+    public void testUnboundThreadFails() throws Exception {
+        // a thread that no command bound to a repository must not fall back to the working directory
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> read = pool.submit(() -> ObjectStore.contains("0123456789012345678901234567890123456789"));
+            try {
+                read.get();
+                fail("an unbound thread should not reach any repository.");
+            } catch (ExecutionException excp) {
+                assertTrue(excp.getCause() instanceof IllegalStateException, excp.getCause().toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        Repository repository = freshRepository();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 3; i += 1) {
+                TestUtils.createFile(new File(ROOT, "f" + i + ".txt").getPath(), "content " + i);
+                repository.add("f" + i + ".txt");
+                repository.commit("change " + i);
+            }
+            String output = TestUtils.captureOutput(() -> {
+                List<Future<?>> reads = new ArrayList<>();
+                for (int i = 0; i < 24; i += 1) {
+                    reads.add(pool.submit(i % 2 == 0 ? repository::status : () -> repository.log(false)));
+                }
+                for (Future<?> read : reads) {
+                    try {
+                        read.get();
+                    } catch (Exception excp) {
+                        throw new AssertionError(excp);
+                    }
+                }
+            });
+            assertEquals(12, output.split("=== Branches ===").length - 1);
+            assertEquals(12 * 4, output.split("(?m)^commit ").length - 1);
+            String[] leftovers = new File(ROOT, ".gitlet").list((dir, name) -> name.endsWith(".tmp"));
+            assertEquals(0, leftovers.length);
+        } finally {
+            pool.shutdown();
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    @Test
+    public void testConcurrentLogsExtendGraph() throws Exception {
+        Repository repository = freshRepository();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 40; i += 1) {
+                TestUtils.createFile(new File(ROOT, "g" + i + ".txt").getPath(), "graph " + i);
+                repository.add("g" + i + ".txt");
+                repository.commit("graph " + i);
+            }
+            File graph = new File(ROOT, ".gitlet/commit-graph");
+            String output = TestUtils.captureOutput(() -> {
+                for (int round = 0; round < 30; round += 1) {
+                    // 没有提交图时每个log都要补全并写回提交图
+                    graph.delete();
+                    List<Future<?>> logs = new ArrayList<>();
+                    for (int i = 0; i < 16; i += 1) {
+                        logs.add(pool.submit(() -> repository.log(false)));
+                    }
+                    for (Future<?> log : logs) {
+                        try {
+                            log.get();
+                        } catch (Exception excp) {
+                            throw new AssertionError(excp);
+                        }
+                    }
+                }
+            });
+            assertEquals(480 * 41, output.split("(?m)^commit ").length - 1);
+            String[] leftovers = new File(ROOT, ".gitlet").list((dir, name) -> name.endsWith(".tmp"));
+            assertEquals(0, leftovers.length);
+        } finally {
+            pool.shutdown();
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+}
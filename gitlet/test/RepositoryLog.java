@@ -2,6 +2,7 @@ package gitlet.test;
 
 import gitlet.Commit;
 import gitlet.Main;
+import gitlet.ObjectStore;
 import gitlet.Repository;
 import org.junit.Test;
 
@@ -79,25 +80,10 @@ public class RepositoryLog {
             return null;
         }
         String parentID = commit.getParents().get(0);
-        File parentFile = join(OBJECTS_DIR, parentID);
-        return (Commit) readObject(parentFile, Commit.class);
+        return ObjectStore.readObject(parentID, Commit.class);
     }
 
     static File join(File first, String... others) {
         return Paths.get(first.getPath(), others).toFile();
     }
-
-    static <T extends Serializable> T readObject(File file,
-                                                 Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
-        } catch (IOException | ClassCastException
-                 | ClassNotFoundException excp) {
-            throw new IllegalArgumentException(excp.getMessage());
-        }
-    }
 }
\ No newline at end of file
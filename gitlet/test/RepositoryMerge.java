@@ -96,4 +96,44 @@ public class RepositoryMerge {
         TestUtils.deleteTestFiles();
 
     }
+
+    @Test
+    public void testMergeUntrackedFile() {
+        // an untracked file is only in the way when the merge would write different content over it
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+        Main.main(new String[]{"init"});
+        Main.main(new String[] {"branch", "other"});
+        TestUtils.createFile("a.txt", "on master");
+        Main.main(new String[]{"add", "a.txt"});
+        Main.main(new String[]{"commit", "a.txt added"});
+        Main.main(new String[] {"checkout", "other"});
+        TestUtils.createFile("b.txt", "on other");
+        Main.main(new String[]{"add", "b.txt"});
+        Main.main(new String[]{"commit", "b.txt added"});
+        Main.main(new String[] {"checkout", "master"});
+
+        TestUtils.createFile("b.txt", "on master");
+        TestUtils.ConsoleCapture consoleCapture = new TestUtils.ConsoleCapture();
+        TestUtils.ExitCapture exitCapture = new TestUtils.ExitCapture();
+        try {
+            Main.main(new String[]{"merge", "other"});
+            fail("Expected System.exit(0) to be called");
+        } catch (TestUtils.ExitCapture.NoExitSecurityManager.ExitException e) {
+            assertEquals(0, e.getExitCode());
+            assertTrue(consoleCapture.getOutput().contains("There is an untracked file in the way; delete it, or add and commit it first."));
+        } finally {
+            consoleCapture.destroy();
+            exitCapture.destroy();
+        }
+        assertFalse(Repository.readLastCommit().isMergeCommit());
+
+        TestUtils.createFile("b.txt", "on other");
+        Main.main(new String[]{"merge", "other"});
+        assertTrue(Repository.readLastCommit().isMergeCommit());
+        TestUtils.deleteTestFiles();
+    }
 }
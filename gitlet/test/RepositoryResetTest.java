@@ -6,6 +6,7 @@ import gitlet.Repository;
 import gitlet.test.TestUtils.ExitCapture.NoExitSecurityManager.ExitException;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -148,4 +149,30 @@ public class RepositoryResetTest {
             throw new RuntimeException(e);
         }
     }
+
+    @Test
+    public void testResetToHeadDiscardsLocalChanges() {
+        // reset to the current commit restores edited and deleted tracked files
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("edited.txt", "orig");
+        TestUtils.createFile("deleted.txt", "keep");
+        Main.main(new String[]{"add", "edited.txt"});
+        Main.main(new String[]{"add", "deleted.txt"});
+        Main.main(new String[]{"commit", "two files"});
+        String head = Repository.readLastCommit().getCommitID();
+
+        TestUtils.createFile("edited.txt", "local edit");
+        new File("deleted.txt").delete();
+        String output = TestUtils.captureOutput(
+                () -> Main.main(new String[]{"reset", "--verbose", head}));
+        assertEquals("0 deleted, 0 created, 2 updated.", output.trim());
+        assertEquals("orig", TestUtils.readFile("edited.txt").get());
+        assertEquals("keep", TestUtils.readFile("deleted.txt").get());
+        TestUtils.deleteTestFiles();
+    }
 }
@@ -0,0 +1,196 @@
+package gitlet.test;
+
+import gitlet.Repository;
+import gitlet.Stage;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RepositoryStagingTest {
+    private static final File ROOT = new File(Repository.CWD, "staging-test-root");
+    private static final File STAGE_LOG = new File(ROOT, ".gitlet/stage-log");
+    private static final File ADD_STAGE = new File(ROOT, ".gitlet/addStage");
+    private static final File REMOVE_STAGE = new File(ROOT, ".gitlet/removeStage");
+    /** 压缩时写下的CHECKPOINT记录：类型5，两个空的Stage。 */
+    private static final byte[] EMPTY_CHECKPOINT = {5, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    private Repository freshRepository() {
+        TestUtils.deleteDirectory(ROOT);
+        ROOT.mkdirs();
+        new Repository(ROOT).init();
+        return Repository.open(ROOT);
+    }
+
+    private String stagedSection(Repository repository) {
+        String output = TestUtils.captureOutput(repository::status);
+        return output.substring(output.indexOf("=== Staged Files ==="),
+                output.indexOf("=== Modifications Not Staged For Commit ==="));
+    }
+
+    /**
+     * 测试：add和rm只追加stage-log，commit之后stage-log清空
+     */
+    @Test
+    public void testAddAppendsAndCommitCompacts() {
+        Repository repository = freshRepository();
+        try {
+            long length = 0;
+            for (int i = 0; i < 5; i += 1) {
+                TestUtils.createFile(new File(ROOT, "f" + i + ".txt").getPath(), "content " + i);
+                repository.add("f" + i + ".txt");
+                assertTrue(STAGE_LOG.length() > length);
+                length = STAGE_LOG.length();
+            }
+            assertFalse(ADD_STAGE.exists());
+            repository.rm("f4.txt");
+            String staged = stagedSection(repository);
+            assertTrue(staged.contains("f0.txt") && staged.contains("f3.txt"));
+            assertFalse(staged.contains("f4.txt"));
+
+            repository.commit("five files");
+            assertEquals(0, STAGE_LOG.length());
+            assertEquals("=== Staged Files ===\n\n=== Removed Files ===\n\n",
+                    stagedSection(repository).replace("\r\n", "\n"));
+
+            repository.rm("f0.txt");
+            assertTrue(stagedSection(repository).contains("f0.txt"));
+            TestUtils.createFile(new File(ROOT, "f0.txt").getPath(), "content 0");
+            repository.add("f0.txt");
+            assertFalse(stagedSection(repository).contains("f0.txt"));
+        } finally {
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    /**
+     * 测试：stage-log末尾写到一半的记录被忽略，下一次add把它截掉
+     */
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        Repository repository = freshRepository();
+        try {
+            TestUtils.createFile(new File(ROOT, "a.txt").getPath(), "a");
+            repository.add("a.txt");
+            try (FileOutputStream out = new FileOutputStream(STAGE_LOG, true)) {
+                out.write(new byte[]{1, 0, 40, 'x', 'y'});
+            }
+            assertTrue(stagedSection(repository).contains("a.txt"));
+
+            TestUtils.createFile(new File(ROOT, "b.txt").getPath(), "b");
+            repository.add("b.txt");
+            String staged = stagedSection(repository);
+            assertTrue(staged.contains("a.txt") && staged.contains("b.txt"));
+            assertFalse(staged.contains("xy"));
+        } finally {
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    /**
+     * 测试：load之后别的进程commit清空了stage-log，再暂存时从头追加，不在旧的位置留下空洞
+     */
+    @Test
+    public void testAppendAfterOtherCompaction() throws Exception {
+        Repository repository = freshRepository();
+        try {
+            TestUtils.createFile(new File(ROOT, "a.txt").getPath(), "a");
+            repository.add("a.txt");
+            Object stale = inRepository(repository, null, "load");
+            repository.commit("a");
+            assertEquals(0, STAGE_LOG.length());
+
+            String path = new File(ROOT, "b.txt").getAbsolutePath();
+            String id = "0123456789012345678901234567890123456789";
+            inRepository(repository, stale, "stage", path, id);
+            assertEquals(Map.of(path, id), stagedFiles(repository, stale));
+            Object reloaded = inRepository(repository, null, "load");
+            assertEquals(Map.of(path, id), stagedFiles(repository, reloaded));
+        } finally {
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    /**
+     * 测试：压缩在清空stage-log之前中断，commit过的文件不会重新出现在暂存区
+     */
+    @Test
+    public void testInterruptedCompaction() throws IOException {
+        Repository repository = freshRepository();
+        try {
+            TestUtils.createFile(new File(ROOT, "a.txt").getPath(), "a");
+            repository.add("a.txt");
+            byte[] records = Files.readAllBytes(STAGE_LOG.toPath());
+            repository.commit("a");
+            String empty = "=== Staged Files ===\n\n=== Removed Files ===\n\n";
+
+            // 已经写好新的Stage文件，stage-log中还有commit之前的记录和CHECKPOINT
+            try (FileOutputStream out = new FileOutputStream(STAGE_LOG)) {
+                out.write(records);
+                out.write(EMPTY_CHECKPOINT);
+            }
+            assertEquals(empty, stagedSection(repository).replace("\r\n", "\n"));
+
+            // 只写了CHECKPOINT，Stage文件还是压缩之前的(这里还没有Stage文件)
+            ADD_STAGE.delete();
+            REMOVE_STAGE.delete();
+            assertEquals(empty, stagedSection(repository).replace("\r\n", "\n"));
+        } finally {
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    /**
+     * 测试：没有stage-log的旧仓库，原来的addStage文件仍然有效
+     */
+    @Test
+    public void testExistingStageFileIsKept() {
+        Repository repository = freshRepository();
+        try {
+            File old = new File(ROOT, "old.txt");
+            TestUtils.createFile(old.getPath(), "old");
+            Stage stage = new Stage();
+            stage.addBlob(old.getPath(), "0123456789012345678901234567890123456789");
+            stage.saveStage(ADD_STAGE);
+
+            TestUtils.createFile(new File(ROOT, "new.txt").getPath(), "new");
+            repository.add("new.txt");
+            String staged = stagedSection(repository);
+            assertTrue(staged.contains("old.txt") && staged.contains("new.txt"));
+        } finally {
+            TestUtils.deleteDirectory(ROOT);
+        }
+    }
+
+    private Map<String, String> stagedFiles(Repository repository, Object staging) throws Exception {
+        return ((Stage) inRepository(repository, staging, "additions")).getBlobMap();
+    }
+
+    /** 在REPOSITORY中调用StagingArea的方法NAME，TARGET为null时是静态方法。 */
+    private Object inRepository(Repository repository, Object target, String name, Object... args)
+            throws Exception {
+        Class<?> stagingArea = Class.forName("gitlet.StagingArea");
+        Class<?>[] types = new Class<?>[args.length];
+        Arrays.fill(types, String.class);
+        Method method = stagingArea.getDeclaredMethod(name, types);
+        method.setAccessible(true);
+        Method within = Repository.class.getDeclaredMethod("within", Supplier.class);
+        within.setAccessible(true);
+        Supplier<Object> call = () -> {
+            try {
+                return method.invoke(target, args);
+            } catch (ReflectiveOperationException excp) {
+                throw new IllegalStateException(excp.getCause());
+            }
+        };
+        return within.invoke(repository, call);
+    }
+}
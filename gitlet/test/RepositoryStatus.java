@@ -79,4 +79,26 @@ public class RepositoryStatus {
         }
         TestUtils.deleteTestFiles();
     }
+
+    @Test
+    public void testStatusAfterSameSizeEdit() {
+        // 内容改了但大小和修改时间都没变的文件仍应显示为modified(stat缓存不能信任刚计算的记录)
+        if (Repository.GITLET_DIR.exists()) {
+            if (!TestUtils.deleteDirectory(Repository.GITLET_DIR)) {
+                fail("Failed to delete existing .gitlet directory.");
+            }
+        }
+        Main.main(new String[]{"init"});
+        TestUtils.createFile("wug.txt", "aaaa");
+        File wug = new File("wug.txt");
+        long modified = wug.lastModified();
+        Main.main(new String[]{"add", "wug.txt"});
+        Main.main(new String[]{"commit", "add wug"});
+        TestUtils.captureOutput(() -> Main.main(new String[]{"status"}));
+        TestUtils.createFile("wug.txt", "bbbb");
+        assertTrue(wug.setLastModified(modified));
+        String output = TestUtils.captureOutput(() -> Main.main(new String[]{"status"}));
+        assertTrue(output.contains("wug.txt (modified)"));
+        TestUtils.deleteTestFiles();
+    }
 }
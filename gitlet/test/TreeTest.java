@@ -0,0 +1,168 @@
+package gitlet.test;
+
+import gitlet.Main;
+import gitlet.Repository;
+import gitlet.Tree;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TreeTest {
+
+    /**
+     * 测试：build和update得到的文件列表，内容相同的tree id相同
+     */
+    @Test
+    public void testUpdateEditsFiles() throws Exception {
+        resetGitlet();
+        Map<String, String> files = files(path("a", "b"), id(1), path("a", "c"), id(2), path("d"), id(3));
+        String root = update(null, files);
+        assertEquals(files, flatten(root));
+
+        String edited = update(root, files(path("a", "b"), null, path("a", "c"), null, path("d"), id(4)));
+        assertEquals(files(path("d"), id(4)), flatten(edited));
+        assertEquals(update(null, files(path("d"), id(4))), edited);
+        assertEquals(root, update(edited, files(path("a", "b"), id(1), path("a", "c"), id(2),
+                path("d"), id(3))));
+    }
+
+    /**
+     * 测试：同一次修改中删除目录a下的文件，并新增文件a
+     */
+    @Test
+    public void testFileReplacesDirectory() throws Exception {
+        resetGitlet();
+        String root = update(null, files(path("a", "b"), id(1)));
+        String swapped = update(root, files(path("a", "b"), null, path("a"), id(2)));
+        assertEquals(files(path("a"), id(2)), flatten(swapped));
+    }
+
+    /**
+     * 测试：同一次修改中删除文件a，并新增a/b
+     */
+    @Test
+    public void testDirectoryReplacesFile() throws Exception {
+        resetGitlet();
+        String root = update(null, files(path("a"), id(1)));
+        String swapped = update(root, files(path("a"), null, path("a", "b"), id(2)));
+        assertEquals(files(path("a", "b"), id(2)), flatten(swapped));
+    }
+
+    /**
+     * 测试：diff给出新增、修改和删除的文件，包括文件和目录互换
+     */
+    @Test
+    public void testDiff() throws Exception {
+        resetGitlet();
+        String from = update(null, files(path("a", "b"), id(1), path("c"), id(2), path("e", "f"), id(5),
+                path("g"), id(7), path("s", "t"), id(8)));
+        String to = update(null, files(path("a", "b"), id(9), path("d"), id(3), path("e"), id(6),
+                path("g", "h"), id(7), path("s", "t"), id(8)));
+        Map<String, String> added = new HashMap<>();
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        invoke("diff", new Class<?>[]{String.class, String.class, Map.class, Map.class, List.class},
+                from, to, added, changed, removed);
+        assertEquals(files(path("d"), id(3), path("e"), id(6), path("g", "h"), id(7)), added);
+        assertEquals(files(path("a", "b"), id(9)), changed);
+        Collections.sort(removed);
+        List<String> expected = new ArrayList<>(List.of(path("c"), path("e", "f"), path("g")));
+        Collections.sort(expected);
+        assertEquals(expected, removed);
+    }
+
+    /**
+     * 测试：mergeCandidates跳过目标分支中没有变化的部分，文件和目录互换时两边都列出
+     */
+    @Test
+    public void testMergeCandidates() throws Exception {
+        resetGitlet();
+        String split = update(null, files(path("x"), id(1), path("s", "y"), id(2), path("t", "z"), id(3),
+                path("u", "w"), id(4)));
+        String cur = update(null, files(path("x"), id(1), path("s", "y"), id(5), path("t", "z"), id(3),
+                path("u", "w"), id(4)));
+        String target = update(null, files(path("x"), id(6), path("s", "y"), id(2), path("t", "z"), id(7),
+                path("u"), id(8)));
+        Map<String, String> splitFiles = new HashMap<>();
+        Map<String, String> curFiles = new HashMap<>();
+        Map<String, String> targetFiles = new HashMap<>();
+        invoke("mergeCandidates", new Class<?>[]{String.class, String.class, String.class,
+            Map.class, Map.class, Map.class}, split, cur, target, splitFiles, curFiles, targetFiles);
+        assertEquals(files(path("x"), id(1), path("t", "z"), id(3), path("u", "w"), id(4)), splitFiles);
+        assertEquals(files(path("x"), id(1), path("t", "z"), id(3), path("u", "w"), id(4)), curFiles);
+        assertEquals(files(path("x"), id(6), path("t", "z"), id(7), path("u"), id(8)), targetFiles);
+    }
+
+    /**
+     * 测试：commit中用文件a替换目录a后，新的commit中有a
+     */
+    @Test
+    public void testCommitFileReplacingDirectory() {
+        resetGitlet();
+        File dir = new File("a");
+        dir.mkdirs();
+        TestUtils.createFile("a/b", "inside");
+        Main.main(new String[]{"add", "a/b"});
+        Main.main(new String[]{"commit", "directory a"});
+        TestUtils.deleteDirectory(dir);
+        Main.main(new String[]{"rm", "a/b"});
+        TestUtils.createFile("a", "file");
+        Main.main(new String[]{"add", "a"});
+        Main.main(new String[]{"commit", "file a"});
+
+        Map<String, String> files = Repository.readLastCommit().getPathToBlobID();
+        assertTrue(files.containsKey(dir.getAbsolutePath()));
+        assertFalse(files.containsKey(new File(dir, "b").getAbsolutePath()));
+        new File("a").delete();
+    }
+
+    private static void resetGitlet() {
+        if (Repository.GITLET_DIR.exists()) {
+            TestUtils.deleteDirectory(Repository.GITLET_DIR);
+        }
+        Main.main(new String[]{"init"});
+    }
+
+    /** 和commit中一样的绝对路径：开头的分隔符之后是各段。 */
+    private static String path(String... parts) {
+        return File.separator + String.join(File.separator, parts);
+    }
+
+    private static String id(int n) {
+        return String.format("%040x", n);
+    }
+
+    /** 按顺序给出的路径和blob id，id可以是null。 */
+    private static Map<String, String> files(String... pathsAndIds) {
+        Map<String, String> files = new HashMap<>();
+        for (int i = 0; i < pathsAndIds.length; i += 2) {
+            files.put(pathsAndIds[i], pathsAndIds[i + 1]);
+        }
+        return files;
+    }
+
+    private static String update(String rootId, Map<String, String> changes) throws Exception {
+        return (String) invoke("update", new Class<?>[]{String.class, Map.class}, rootId, changes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> flatten(String rootId) throws Exception {
+        return (Map<String, String>) invoke("flatten", new Class<?>[]{String.class}, rootId);
+    }
+
+    private static Object invoke(String name, Class<?>[] types, Object... args)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Method method = Tree.class.getDeclaredMethod(name, types);
+        method.setAccessible(true);
+        return method.invoke(null, args);
+    }
+}